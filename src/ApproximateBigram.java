@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bigram that keeps its counts in a fixed amount of memory instead of a
+ * graph of nodes. Word pairs are counted in one count-min sketch and the
+ * number of times each word is used as a context is counted in a second,
+ * smaller one. The most frequent contexts are also tracked by a heavy hitters
+ * list, which gives exact totals for them.
+ *
+ * The probability of a word following a context is the estimated pair count
+ * divided by the context total. Pair estimates are never below the true
+ * count, so a pair estimated at 0 was never seen. Each estimate is over by at
+ * most (e / width) * N with probability 1 - e^-depth, where N is the number
+ * of pairs added.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class ApproximateBigram {
+
+	/**
+	 * Sketch of word pair counts and sketch of context counts.
+	 */
+	private final CountMinSketch myPairs;
+	private final CountMinSketch myContexts;
+
+	/**
+	 * The most frequent contexts and their totals.
+	 */
+	private final HeavyHitters myHeavyContexts;
+
+	/**
+	 * ApproximateBigram constructor. Seven eighths of the memory goes to the
+	 * pair sketch and the rest to the context sketch.
+	 *
+	 * @param theMemoryBytes
+	 *            - memory given to both sketches.
+	 * @param theDepth
+	 *            - number of hash rows in each sketch.
+	 * @param theHeavyHitters
+	 *            - number of contexts tracked exactly.
+	 */
+	public ApproximateBigram(final long theMemoryBytes, final int theDepth, final int theHeavyHitters) {
+		myPairs = CountMinSketch.withMemory(theMemoryBytes / 8 * 7, theDepth);
+		myContexts = CountMinSketch.withMemory(theMemoryBytes / 8, theDepth);
+		myHeavyContexts = new HeavyHitters(theHeavyHitters);
+	}
+
+	/**
+	 * Counts one occurrence of theWord following theContext.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 */
+	public void add(final String theContext, final String theWord) {
+		myPairs.add(CountMinSketch.pairKey(theContext, theWord), 1);
+		myContexts.add(CountMinSketch.wordKey(theContext), 1);
+		myHeavyContexts.add(theContext);
+	}
+
+	/**
+	 * Gets the probability of theWord following theContext.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 * @return the estimated probability, 0 if the pair was never seen.
+	 */
+	public double getProbability(final String theContext, final String theWord) {
+		final long pairCount = myPairs.estimate(CountMinSketch.pairKey(theContext, theWord));
+		if (pairCount == 0) {
+			return 0.0;
+		}
+		final long total = getContextTotal(theContext);
+		return (double) Math.min(pairCount, total) / total;
+	}
+
+	/**
+	 * Gets the number of times a word was used as a context, exactly if it is
+	 * a heavy hitter tracked from its first occurrence.
+	 *
+	 * @param theContext
+	 *            - the word being looked up.
+	 * @return the number of times theContext was followed by a word.
+	 */
+	public long getContextTotal(final String theContext) {
+		if (myHeavyContexts.isExact(theContext)) {
+			return myHeavyContexts.getCount(theContext);
+		}
+		return myContexts.estimate(CountMinSketch.wordKey(theContext));
+	}
+
+	/**
+	 * @return the number of bytes used by both sketches.
+	 */
+	public long getMemoryBytes() {
+		return myPairs.getMemoryBytes() + myContexts.getMemoryBytes();
+	}
+
+	/**
+	 * @return the error bounds of the sketch followed by the heavy hitter
+	 *         contexts, highest count first.
+	 */
+	public List<String> describe() {
+		final List<String> lines = new ArrayList<String>();
+		lines.add("Pairs counted : " + myPairs.getTotal() + ", memory : " + getMemoryBytes() + " bytes");
+		lines.add("Pair count error : +" + myPairs.getErrorBound() + " with probability "
+				+ (1.0 - myPairs.getFailureProbability()));
+		lines.addAll(myHeavyContexts.describe());
+		return lines;
+	}
+}
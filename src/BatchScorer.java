@@ -0,0 +1,224 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scores blocks of lines against a FrozenBigram. Each block is first turned
+ * into primitive arrays of word ids and context ids, then the log
+ * probabilities are looked up into one array, added up line by line and
+ * turned into perplexities, each step a tight loop over arrays reused from
+ * block to block. Words are looked up straight from the tokenizer's buffer,
+ * no Strings or boxed values are made, and each line needs one Math.exp
+ * instead of a Math.pow.
+ *
+ * The project targets Java 8, which has no jdk.incubator.vector, so the
+ * loops are plain scalar loops kept simple enough for the JIT to unroll.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class BatchScorer {
+
+	/**
+	 * Number of lines resolved and scored together.
+	 */
+	public static int BATCH_LINES = 256;
+
+	/**
+	 * The model being scored against.
+	 */
+	private final FrozenBigram myModel;
+
+	/**
+	 * When true every line also ends with the end symbol, as with
+	 * Bigram.SENTENCES.
+	 */
+	private final boolean mySentences;
+
+	/**
+	 * Ids of the start, end and unknown symbols, -1 if not in the model.
+	 */
+	private final int myStartId;
+	private final int myEndId;
+	private final int myUnknownId;
+
+	/**
+	 * Splits the lines into words.
+	 */
+	private final Tokenizer myTokenizer = new Tokenizer();
+
+	/**
+	 * Word id, context id and log probability of every token of a block, and
+	 * where each line of the block starts in them.
+	 */
+	private int[] myIds = new int[1024];
+	private int[] myContexts = new int[1024];
+	private double[] myLogProbs = new double[1024];
+	private int[] myLineStart = new int[BATCH_LINES + 1];
+
+	/**
+	 * BatchScorer constructor.
+	 *
+	 * @param theModel
+	 *            - the model being scored against.
+	 * @param isSentences
+	 *            - true to end every line with the end symbol.
+	 */
+	public BatchScorer(final FrozenBigram theModel, final boolean isSentences) {
+		myModel = theModel;
+		mySentences = isSentences;
+		myStartId = theModel.getId(Bigram.START_SYMBOL);
+		myEndId = theModel.getId(Bigram.END_SYMBOL);
+		myUnknownId = theModel.getId(Bigram.UNKNOWN_SYMBOL);
+	}
+
+	/**
+	 * Calculates the perplexity of every line.
+	 *
+	 * @param theLines
+	 *            - lines being evaluated.
+	 * @param thePerplexities
+	 *            - array the perplexity of line i is written to at index i.
+	 *            Lines with a pair that was never seen get infinity, lines
+	 *            with no words get NaN.
+	 */
+	public void score(final List<String> theLines, final double[] thePerplexities) {
+		if (thePerplexities.length < theLines.size()) {
+			throw new IllegalArgumentException(
+					"Need room for " + theLines.size() + " perplexities, have " + thePerplexities.length);
+		}
+		final int batch = Math.max(1, BATCH_LINES);
+		for (int from = 0; from < theLines.size(); from += batch) {
+			final int to = Math.min(theLines.size(), from + batch);
+			final long time = Metrics.start();
+			resolve(theLines, from, to);
+			lookUp(to - from);
+			perplexities(to - from, thePerplexities, from);
+			Metrics.stop("batch.score", time, to - from);
+		}
+	}
+
+	/**
+	 * Fills the word and context ids of a block of lines.
+	 *
+	 * @param theLines
+	 *            - lines being evaluated.
+	 * @param theFrom
+	 *            - index of the first line of the block.
+	 * @param theTo
+	 *            - index after the last line of the block.
+	 * @return the number of tokens in the block.
+	 */
+	private int resolve(final List<String> theLines, final int theFrom, final int theTo) {
+		if (myLineStart.length < theTo - theFrom + 1) {
+			myLineStart = new int[theTo - theFrom + 1];
+		}
+		int tokens = 0;
+		for (int line = theFrom; line < theTo; line++) {
+			myLineStart[line - theFrom] = tokens;
+			int context = myStartId;
+			myTokenizer.reset(theLines.get(line));
+			while (myTokenizer.next()) {
+				int id = myModel.getId(myTokenizer.getTokenChars(), 0, myTokenizer.getTokenLength());
+				if (id < 0) {
+					id = myUnknownId;
+				}
+				tokens = append(tokens, context, id);
+				context = id;
+				if (id < 0) {
+					// The line can not be scored, so the rest of it is skipped.
+					break;
+				}
+			}
+			// A line with no words gets no end symbol, so it has no perplexity.
+			if (mySentences && context >= 0 && tokens > myLineStart[line - theFrom]) {
+				tokens = append(tokens, context, myEndId);
+			}
+		}
+		myLineStart[theTo - theFrom] = tokens;
+		return tokens;
+	}
+
+	/**
+	 * Adds one token to the block, growing the arrays if needed.
+	 *
+	 * @param theIndex
+	 *            - index the token goes at.
+	 * @param theContext
+	 *            - id of the previous word.
+	 * @param theId
+	 *            - id of the word.
+	 * @return the index of the next token.
+	 */
+	private int append(final int theIndex, final int theContext, final int theId) {
+		if (theIndex == myIds.length) {
+			myIds = Arrays.copyOf(myIds, theIndex * 2);
+			myContexts = Arrays.copyOf(myContexts, theIndex * 2);
+			myLogProbs = new double[theIndex * 2];
+		}
+		myContexts[theIndex] = theContext;
+		myIds[theIndex] = theId;
+		return theIndex + 1;
+	}
+
+	/**
+	 * Looks up the log probability of every token of the block. Once a line
+	 * has a pair that was never seen, the rest of its tokens are set to 0
+	 * instead of being looked up.
+	 *
+	 * @param theLines
+	 *            - number of lines in the block.
+	 */
+	private void lookUp(final int theLines) {
+		final int[] ids = myIds;
+		final int[] contexts = myContexts;
+		final double[] logProbs = myLogProbs;
+		for (int line = 0; line < theLines; line++) {
+			final int end = myLineStart[line + 1];
+			for (int i = myLineStart[line]; i < end; i++) {
+				logProbs[i] = myModel.getLogProbability(contexts[i], ids[i]);
+				if (logProbs[i] == Double.NEGATIVE_INFINITY) {
+					Arrays.fill(logProbs, i + 1, end, 0.0);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds up the log probabilities of each line of the block and turns the
+	 * sums into perplexities.
+	 *
+	 * @param theLines
+	 *            - number of lines in the block.
+	 * @param thePerplexities
+	 *            - array the perplexities are written to.
+	 * @param theOffset
+	 *            - index the first line of the block is written to.
+	 */
+	private void perplexities(final int theLines, final double[] thePerplexities, final int theOffset) {
+		final double[] logProbs = myLogProbs;
+		final int[] lineStart = myLineStart;
+		for (int line = 0; line < theLines; line++) {
+			final int start = lineStart[line];
+			final int end = lineStart[line + 1];
+			// Four sums let the additions run side by side.
+			double sum0 = 0.0;
+			double sum1 = 0.0;
+			double sum2 = 0.0;
+			double sum3 = 0.0;
+			int i = start;
+			for (; i + 3 < end; i += 4) {
+				sum0 += logProbs[i];
+				sum1 += logProbs[i + 1];
+				sum2 += logProbs[i + 2];
+				sum3 += logProbs[i + 3];
+			}
+			for (; i < end; i++) {
+				sum0 += logProbs[i];
+			}
+			// perplexity = 1/(pow(joint_prob, 1.0/sent_len)) = exp(-log(joint_prob)/sent_len)
+			thePerplexities[theOffset + line] = Math.exp(-((sum0 + sum1) + (sum2 + sum3)) / (end - start));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time taken to score every line of the evaluation file against
+ * a frozen sentence model by the per line path (a boxed Double joint
+ * probability, one Math.exp per word and one Math.pow per line, as Bigram
+ * scores lines) and by a BatchScorer. Both paths are run a few times first so
+ * the JIT has compiled them before they are timed.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class BatchScorerBenchmark {
+
+	/**
+	 * Number of untimed and timed runs of each path.
+	 */
+	public static int WARMUP_RUNS = 10;
+	public static int TIMED_RUNS = 50;
+
+	/**
+	 * Written by every run so the JIT can not skip the work.
+	 */
+	private static volatile double mySink;
+
+	/**
+	 * @param args
+	 *            - optional name of the file to score, defaults to
+	 *            Bigram.FILE_NAME_TWO.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final String fileName = args.length > 0 ? args[0] : Bigram.FILE_NAME_TWO;
+		Bigram.SENTENCES = true;
+		Bigram.FREEZE = true;
+		Bigram.reset();
+		Bigram.startProbalities();
+		final FrozenBigram model = Bigram.getFrozenModel();
+
+		final List<String> lines = new ArrayList<String>();
+		for (final String line : Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8)) {
+			if (!"".equals(line.trim())) {
+				lines.add(line);
+			}
+		}
+		final double[] perLine = new double[lines.size()];
+		final double[] batched = new double[lines.size()];
+		final BatchScorer scorer = new BatchScorer(model, true);
+		scorePerLine(model, lines, perLine);
+		scorer.score(lines, batched);
+		double largestError = 0.0;
+		int finite = 0;
+		for (int i = 0; i < perLine.length; i++) {
+			if (!Double.isInfinite(perLine[i])) {
+				largestError = Math.max(largestError, Math.abs(batched[i] - perLine[i]) / perLine[i]);
+				finite += 1;
+			} else if (!Double.isInfinite(batched[i])) {
+				System.out.println("Line " + i + " differs : per line " + perLine[i] + ", batched " + batched[i]);
+			}
+		}
+
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			scorePerLine(model, lines, perLine);
+			scorer.score(lines, batched);
+		}
+		long time = System.nanoTime();
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			scorePerLine(model, lines, perLine);
+			mySink = perLine[i % perLine.length];
+		}
+		final double perLineMillis = (System.nanoTime() - time) / 1e6 / TIMED_RUNS;
+		time = System.nanoTime();
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			scorer.score(lines, batched);
+			mySink = batched[i % batched.length];
+		}
+		final double batchedMillis = (System.nanoTime() - time) / 1e6 / TIMED_RUNS;
+
+		System.out.println("Lines : " + lines.size() + ", finite : " + finite);
+		System.out.println("Largest relative difference : " + largestError);
+		System.out.println("Per line : " + perLineMillis + " ms per run");
+		System.out.println("Batched : " + batchedMillis + " ms per run");
+		System.out.println("Speedup : " + perLineMillis / batchedMillis + "x");
+	}
+
+	/**
+	 * Scores lines the way Bigram does, one line at a time.
+	 *
+	 * @param theModel
+	 *            - the model being scored against.
+	 * @param theLines
+	 *            - lines being evaluated.
+	 * @param thePerplexities
+	 *            - array the perplexities are written to.
+	 */
+	private static void scorePerLine(final FrozenBigram theModel, final List<String> theLines,
+			final double[] thePerplexities) {
+		final Tokenizer tokenizer = new Tokenizer();
+		for (int i = 0; i < theLines.size(); i++) {
+			Double lineProbability = 1.0;
+			String prevWord = Bigram.START_SYMBOL;
+			tokenizer.reset(theLines.get(i));
+			int length = 1;
+			while (tokenizer.next()) {
+				final String word = tokenizer.getToken();
+				final double probability = Math.exp(theModel.getLogProbability(prevWord, word));
+				if (probability == 0.0) {
+					lineProbability = 0.0;
+					break;
+				}
+				lineProbability *= probability;
+				prevWord = word;
+				length += 1;
+			}
+			if (lineProbability != 0.0) {
+				lineProbability *= Math.exp(theModel.getLogProbability(prevWord, Bigram.END_SYMBOL));
+			}
+			thePerplexities[i] = 1.0 / Math.pow(lineProbability, 1.0 / length);
+		}
+	}
+}
@@ -1,3 +1,4 @@
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -5,12 +6,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class generates a bigram by reading in a file to a string. It then
@@ -38,10 +49,12 @@ public class Bigram {
 	public static String OUT_FILE_NAME_TWO = "bigram_eval.txt";
 
 	/**
-	 * Start Symbol and end symbol in our bigram.
+	 * Start Symbol and end symbol in our bigram, and the symbol rare words are
+	 * replaced with when the vocabulary is pruned.
 	 */
 	public static String START_SYMBOL = "<START>";
 	public static String END_SYMBOL = "<END>";
+	public static String UNKNOWN_SYMBOL = "<UNK>";
 
 	/**
 	 * Number of lines written to a file.
@@ -49,19 +62,205 @@ public class Bigram {
 	public static int NUMBER_OF_LINES = 100;
 
 	/**
-	 * Hashmap that stores nodes and their string name.
+	 * Number of scored lines and resolved context rows kept in the caches used
+	 * during evaluation. A size of 0 turns that cache off.
+	 */
+	public static int LINE_CACHE_SIZE = 0;
+	public static int CONTEXT_CACHE_SIZE = 0;
+
+	/**
+	 * When true, counts are kept in a fixed amount of memory by an
+	 * ApproximateBigram instead of the node graph.
+	 */
+	public static boolean APPROXIMATE = false;
+	public static long APPROXIMATE_MEMORY_BYTES = 16L * 1024 * 1024;
+	public static int APPROXIMATE_DEPTH = 4;
+	public static int APPROXIMATE_HEAVY_HITTERS = 1000;
+
+	/**
+	 * Vocabulary pruning. Words seen fewer than MIN_COUNT times, or outside the
+	 * MAX_VOCABULARY most frequent words, are merged into UNKNOWN_SYMBOL. When
+	 * PRUNE_INTERVAL is above 0 the graph is also pruned every PRUNE_INTERVAL
+	 * words while it is built, which keeps memory down on large inputs at the
+	 * cost of losing the counts a word had before it was pruned. A value of 0
+	 * turns each setting off.
+	 */
+	public static int MIN_COUNT = 0;
+	public static int MAX_VOCABULARY = 0;
+	public static int PRUNE_INTERVAL = 0;
+
+	/**
+	 * When FREEZE is true the graph is turned into a FrozenBigram once
+	 * training is done and lines are scored against it. QUANTIZATION_BITS of
+	 * 8 or 16 stores its log probabilities as quantized codes, and prints how
+	 * much the perplexity moved compared to the exact model.
+	 */
+	public static boolean FREEZE = false;
+	public static int QUANTIZATION_BITS = 0;
+
+	/**
+	 * File the frozen model is written to, or null to not write it.
+	 */
+	public static String FROZEN_FILE_NAME = null;
+
+	/**
+	 * When BATCH_SCORING is true and the model is frozen, lines are scored in
+	 * blocks by a BatchScorer, skipping the line cache and the Bloom filter.
+	 */
+	public static boolean BATCH_SCORING = false;
+
+	/**
+	 * When LINE_SCORING is true and the model is frozen, the evaluation text
+	 * is scored in place by a LineScorer, without splitting it into Strings
+	 * and skipping the line cache and the Bloom filter.
+	 */
+	public static boolean LINE_SCORING = false;
+
+	/**
+	 * When TIERED is true the graph is frozen, even if FREEZE is false, the
+	 * frozen model is written to TIERED_FILE_NAME and lines are scored against
+	 * a TieredBigram mapped from it, keeping at most TIERED_HOT_EDGES word
+	 * pairs of the most used contexts on the heap. Once it is open the graph
+	 * and the frozen model are dropped, so lines are scored one by one and the
+	 * quantization error is not printed. When
+	 * TIERED_LOAD is also true, training is skipped and an existing
+	 * TIERED_FILE_NAME is opened instead.
+	 */
+	public static boolean TIERED = false;
+	public static boolean TIERED_LOAD = false;
+	public static String TIERED_FILE_NAME = "bigram.tiered";
+	public static long TIERED_HOT_EDGES = 1 << 16;
+
+	/**
+	 * When BLOOM_FILTER is true, a Bloom filter of every word pair seen lets
+	 * training skip the search through a node's children for new pairs, and
+	 * lets scoring reject unseen pairs before looking them up. The training
+	 * filter is sized for BLOOM_EXPECTED_PAIRS, and is rebuilt to fit the
+	 * actual number of pairs once training is done.
+	 */
+	public static boolean BLOOM_FILTER = false;
+	public static long BLOOM_EXPECTED_PAIRS = 1000000;
+	public static double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * When SPILL_PAIRS is above 0, the training file is read line by line and
+	 * pairs are counted with at most SPILL_PAIRS distinct pairs in memory,
+	 * spilling sorted runs to SPILL_DIRECTORY and merging them into the graph
+	 * at the end. Only counting is bounded: the merged graph is still built
+	 * on the heap, so it must fit there.
+	 */
+	public static int SPILL_PAIRS = 0;
+	public static String SPILL_DIRECTORY = System.getProperty("java.io.tmpdir");
+
+	/**
+	 * When SENTENCES is true every line of the training file is its own
+	 * sentence, going from the start symbol to the end symbol, and lines are
+	 * scored the same way. Lines share nothing, so they are counted by
+	 * SENTENCE_THREADS threads, each taking a block of whole lines.
+	 */
+	public static boolean SENTENCES = false;
+	public static int SENTENCE_THREADS = 1;
+
+	/**
+	 * When FOOTPRINT is true the heap used by each part of the graph is
+	 * measured and printed once training is done.
+	 */
+	public static boolean FOOTPRINT = false;
+
+	/**
+	 * Hashmap that stores nodes and their string name, null once a tiered
+	 * model is open.
 	 */
 	private static HashMap<String, Node> myHashMap;
 
+	/**
+	 * Splits text into lower case words for training and scoring.
+	 */
+	private static final Tokenizer myTokenizer = new Tokenizer();
+
+	/**
+	 * Approximate counts, only used when APPROXIMATE is true.
+	 */
+	private static ApproximateBigram myApproximateModel;
+
+	/**
+	 * Read only model used for scoring, null unless FREEZE is true.
+	 */
+	private static FrozenBigram myFrozenModel;
+
+	/**
+	 * Model mapped from the frozen model, null unless TIERED is true.
+	 */
+	private static TieredBigram myTieredModel;
+
+	/**
+	 * Filter of every word pair seen, null unless BLOOM_FILTER is true, and
+	 * the number of lookups it rejected and passed while scoring.
+	 */
+	private static BloomFilter myBloomFilter;
+	private static long myBloomRejects;
+	private static long myBloomPasses;
+
+	/**
+	 * Caches of line probabilities and of the probability rows of context
+	 * nodes. Null when turned off.
+	 */
+	private static ScoreCache<String, Double> myLineCache;
+	private static ScoreCache<String, HashMap<String, Double>> myContextCache;
+
+	/**
+	 * Row of a context that was never seen, shared by every miss and never
+	 * changed.
+	 */
+	private static final HashMap<String, Double> EMPTY_ROW = new HashMap<String, Double>();
+
 	public static void main(final String[] args) {
+		reset();
+
+		Metrics.install();
+		startProbalities();
+		startEvaluation();
+		Metrics.finish();
+
+	}
+
+	/**
+	 * Starts a new, empty graph holding only the start symbol.
+	 */
+	static void reset() {
 		// Initialize Hashmap.
 		myHashMap = new HashMap<String, Node>();
 		final Node startSymbol = new Node(START_SYMBOL);
 		myHashMap.put(START_SYMBOL, startSymbol);
+		myFrozenModel = null;
+		myTieredModel = null;
+		myBloomFilter = null;
+	}
 
-		startProbalities();
-		startEvaluation();
+	/**
+	 * Keeps the models aside and starts a new, empty graph, so the graph can
+	 * be trained for something else, such as planning, and the models given
+	 * back with restoreModels() afterwards.
+	 *
+	 * @return the models held before the call.
+	 */
+	static Models saveModels() {
+		final Models models = new Models(myHashMap, myFrozenModel, myTieredModel, myBloomFilter);
+		reset();
+		return models;
+	}
 
+	/**
+	 * Gives back the models kept aside by saveModels(), dropping whatever was
+	 * trained since.
+	 *
+	 * @param theModels - the models returned by saveModels().
+	 */
+	static void restoreModels(final Models theModels) {
+		myHashMap = theModels.myGraph;
+		myFrozenModel = theModels.myFrozen;
+		myTieredModel = theModels.myTiered;
+		myBloomFilter = theModels.myBloom;
 	}
 
 	/**
@@ -69,12 +268,125 @@ public class Bigram {
 	 * words found in the file.
 	 */
 	public static void startProbalities() {
-		// Read in File to String
-		final String str = readFile(FILE_NAME_ONE, false);
-		// Build graph using each word in string.
-		buildGraph(str);
+		if (TIERED && TIERED_LOAD) {
+			openTieredModel();
+			return;
+		}
+		// Build graph using each word in the file.
+		if (APPROXIMATE) {
+			buildApproximateModel(readFile(FILE_NAME_ONE));
+		} else {
+			myBloomFilter = BLOOM_FILTER ? new BloomFilter(BLOOM_EXPECTED_PAIRS, BLOOM_FALSE_POSITIVE_RATE) : null;
+			if (SENTENCES) {
+				buildGraphBySentence(readFile(FILE_NAME_ONE));
+			} else if (SPILL_PAIRS > 0) {
+				// The file is read line by line, never as one string.
+				buildGraphBySpilling(FILE_NAME_ONE);
+			} else {
+				buildGraph(readFile(FILE_NAME_ONE));
+			}
+		}
+		finishTraining();
+	}
+
+	/**
+	 * Runs every step after the pairs have been counted: pruning, the Bloom
+	 * filter, writing the probabilities and freezing.
+	 */
+	static void finishTraining() {
+		if (!APPROXIMATE) {
+			if (isPruning()) {
+				pruneVocabulary();
+			}
+			recordModelSize();
+			if (FOOTPRINT) {
+				System.out.println("Footprint : " + CapacityPlanner.measure(myHashMap));
+			}
+			if (BLOOM_FILTER) {
+				buildBloomFilter(countEdges());
+			}
+		}
 		// Calculates probability and write to file.
 		writeProbabilities(OUT_FILE_NAME_ONE);
+		// A tiered model is written from the frozen model, so TIERED freezes too.
+		if ((FREEZE || TIERED) && !APPROXIMATE) {
+			freeze();
+		}
+	}
+
+	/**
+	 * Turns the graph into a read only model used for scoring.
+	 */
+	static void freeze() {
+		final long time = Metrics.start();
+		myFrozenModel = new FrozenBigram(myHashMap, QUANTIZATION_BITS);
+		Metrics.stop("bigram.freeze", time, myFrozenModel.getEdgeCount());
+		Metrics.gauge("bigram.frozenBytes", myFrozenModel.getMemoryBytes());
+		Metrics.gauge("bigram.vocabularyBitsPerKey", myFrozenModel.getVocabulary().getBitsPerKey());
+		if (FROZEN_FILE_NAME != null) {
+			try {
+				myFrozenModel.write(new File(FROZEN_FILE_NAME));
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (TIERED) {
+			try {
+				TieredBigram.write(myFrozenModel, new File(TIERED_FILE_NAME));
+			} catch (final IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			openTieredModel();
+		}
+	}
+
+	/**
+	 * Opens the tiered model in TIERED_FILE_NAME, then drops the graph and the
+	 * frozen model so only the tiered model's heap is kept while scoring.
+	 */
+	private static void openTieredModel() {
+		final long time = Metrics.start();
+		try {
+			myTieredModel = new TieredBigram(new File(TIERED_FILE_NAME), TIERED_HOT_EDGES);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		myHashMap = null;
+		myFrozenModel = null;
+		Metrics.stop("bigram.tiered.open", time);
+	}
+
+	/**
+	 * Builds a Bloom filter holding every word pair in the graph.
+	 * 
+	 * @param theExpectedPairs - number of pairs the filter is sized for.
+	 */
+	private static void buildBloomFilter(final long theExpectedPairs) {
+		final long time = Metrics.start();
+		myBloomFilter = new BloomFilter(theExpectedPairs, BLOOM_FALSE_POSITIVE_RATE);
+		for (final Node node : myHashMap.values()) {
+			for (int i = 0; i < node.getTotalChildren(); i++) {
+				myBloomFilter.put(CountMinSketch.pairKey(node.getMyStringName(), node.getChildName(i)));
+			}
+		}
+		Metrics.stop("bigram.bloom.build", time, myBloomFilter.size());
+		Metrics.gauge("bigram.bloom.bytes", myBloomFilter.getMemoryBytes());
+	}
+
+	/**
+	 * @return the read only model, or null if the graph was not frozen.
+	 */
+	static FrozenBigram getFrozenModel() {
+		return myFrozenModel;
+	}
+
+	/**
+	 * @return hashmap<theStringName, theNode> built during training.
+	 */
+	static HashMap<String, Node> getGraph() {
+		return myHashMap;
 	}
 
 	/**
@@ -82,32 +394,88 @@ public class Bigram {
 	 * probabilities and the perplexity of each line found in a file.
 	 */
 	public static void startEvaluation() {
-		final List<Double> perplexities = evaluateStringPerplexities(readFile(FILE_NAME_TWO, true));
+		// Caches are created after training so they never hold stale scores.
+		myLineCache = LINE_CACHE_SIZE > 0 ? new ScoreCache<String, Double>(LINE_CACHE_SIZE) : null;
+		myContextCache = CONTEXT_CACHE_SIZE > 0 ? new ScoreCache<String, HashMap<String, Double>>(CONTEXT_CACHE_SIZE)
+				: null;
+		final String evaluationString = readFile(FILE_NAME_TWO);
+		final List<Double> perplexities = evaluateStringPerplexities(evaluationString);
 		writeFile(perplexities, OUT_FILE_NAME_TWO);
+		if (myFrozenModel != null && myFrozenModel.getBits() > 0) {
+			printQuantizationError(evaluationString);
+		}
+		if (myLineCache != null) {
+			System.out.println("Line cache : " + myLineCache);
+		}
+		if (myContextCache != null) {
+			System.out.println("Context cache : " + myContextCache);
+		}
+		if (myTieredModel != null) {
+			System.out.println("Tiered model : " + myTieredModel);
+		}
+		if (myBloomFilter != null) {
+			System.out.println("Bloom filter : rejects : " + myBloomRejects + ", passes : " + myBloomPasses
+					+ ", bytes : " + myBloomFilter.getMemoryBytes() + ", false positive rate : "
+					+ myBloomFilter.getExpectedFalsePositiveRate());
+		}
+	}
+
+	/**
+	 * Prints the perplexity and probability storage of the quantized model next
+	 * to those of an exact model frozen from the same graph.
+	 * 
+	 * @param theString - the evaluation file, one line per sentence.
+	 */
+	private static void printQuantizationError(final String theString) {
+		final List<String> lines = new ArrayList<String>();
+		for (final String line : theString.split(System.lineSeparator())) {
+			if (!"".equals(line.trim())) {
+				lines.add(line);
+			}
+		}
+		final FrozenBigram exact = new FrozenBigram(myHashMap, 0);
+		final double exactPerplexity = exact.perplexity(lines);
+		final double quantizedPerplexity = myFrozenModel.perplexity(lines);
+		System.out.println("Exact perplexity : " + exactPerplexity + ", " + exact.getProbabilityBytes() + " bytes");
+		System.out.println(myFrozenModel.getBits() + " bit perplexity : " + quantizedPerplexity + ", "
+				+ myFrozenModel.getProbabilityBytes() + " bytes");
+		System.out.println("Perplexity delta : "
+				+ (100.0 * (quantizedPerplexity - exactPerplexity) / exactPerplexity) + "%");
+	}
+
+	/**
+	 * @return the cache of line probabilities, or null if it is turned off.
+	 */
+	public static ScoreCache<String, Double> getLineCache() {
+		return myLineCache;
+	}
+
+	/**
+	 * @return the cache of context probability rows, or null if it is turned
+	 *         off.
+	 */
+	public static ScoreCache<String, HashMap<String, Double>> getContextCache() {
+		return myContextCache;
 	}
 
 	/**
-	 * Reads in a text file and returns it as a string.
+	 * Reads in a text file and returns it as a string. Line breaks and case are
+	 * kept, the tokenizer lower cases and splits words as it reads them.
 	 * 
 	 * @param theFileName
 	 *            - file to become string.
-	 * @param isFormated
-	 *            - Will the returned string contain line breaks.
 	 * @return the string created from reading theFileName.
 	 */
-	private static String readFile(final String theFileName, final boolean isFormated) {
+	private static String readFile(final String theFileName) {
+		final long time = Metrics.start();
 		String str = "";
 		try (Scanner sc = new Scanner(new File(theFileName));) {
 			// "\Z" means "end of string"
-			str = sc.useDelimiter("\\Z").next().toLowerCase().trim();
-			// "\r" and "\n" are line breaks in linux and windows respectively.
-			if (!isFormated) {
-				str = str.replaceAll("\\r", " ").replaceAll("\\n", " ");
-				str = str.replaceAll("\\s+", " ");
-			}
+			str = sc.useDelimiter("\\Z").next().trim();
 		} catch (final FileNotFoundException e) {
 			e.printStackTrace();
 		}
+		Metrics.stop("bigram.read", time, str.length());
 		return str;
 	}
 
@@ -117,17 +485,317 @@ public class Bigram {
 	 * @param theString
 	 *            - the contents of a file converted to a string.
 	 */
-	private static void buildGraph(final String theString) {
+	static void buildGraph(final String theString) {
+		final long time = Metrics.start();
 		Node currentNode = myHashMap.get(START_SYMBOL);
-		for (final String word : theString.split(" ")) {
-			// Checks for empty string
-			if (!"".equals(word.trim())) {
-				processNextString(currentNode, word);
-				currentNode = myHashMap.get(word);
+		int count = 0;
+		myTokenizer.reset(theString);
+		while (myTokenizer.next()) {
+			final String word = myTokenizer.getToken();
+			processNextString(currentNode, word);
+			currentNode = myHashMap.get(word);
+			count += 1;
+			if (PRUNE_INTERVAL > 0 && count % PRUNE_INTERVAL == 0) {
+				pruneVocabulary();
+				// The current word may have just been merged into the unknown symbol.
+				currentNode = myHashMap.containsKey(word) ? currentNode : myHashMap.get(UNKNOWN_SYMBOL);
 			}
 		}
 		// adds end symbol
 		processNextString(currentNode, END_SYMBOL);
+		// Tokenizing happens in the same pass, so it is timed here too.
+		Metrics.stop("bigram.count", time, count);
+	}
+
+	/**
+	 * Reads the file line by line, counting each pair of words with a
+	 * spilling counter, then merges the counts into the node graph. The merge
+	 * is sorted, so the pairs of each context come together and are added as
+	 * one row.
+	 * 
+	 * @param theFileName
+	 *            - the file being counted.
+	 */
+	private static void buildGraphBySpilling(final String theFileName) {
+		final long time = Metrics.start();
+		final SpillingBigramCounter counter = new SpillingBigramCounter(SPILL_PAIRS, new File(SPILL_DIRECTORY));
+		long count = 0;
+		try (BufferedReader reader = CorpusIngester.open(Paths.get(theFileName))) {
+			count = counter.addText(reader);
+			System.out.println("Spilled " + counter.getRunCount() + " runs");
+			final ContextRows rows = new ContextRows();
+			counter.merge(rows);
+			rows.flush();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+		Metrics.stop("bigram.count", time, count);
+	}
+
+	/**
+	 * Splits the string into lines and counts the pairs of each line, from the
+	 * start symbol to the end symbol, in blocks of lines counted by
+	 * SENTENCE_THREADS threads. The counts of every block are then added to
+	 * the node graph. No pair crosses a line, so blocks need no fixing up.
+	 * 
+	 * @param theString
+	 *            - the contents of a file converted to a string.
+	 */
+	private static void buildGraphBySentence(final String theString) {
+		final long time = Metrics.start();
+		final String[] lines = theString.split("\n");
+		final int threads = Math.max(1, Math.min(SENTENCE_THREADS, lines.length));
+		final int blockSize = (lines.length + threads - 1) / threads;
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final List<Future<SentenceBlock>> futures = new ArrayList<Future<SentenceBlock>>();
+		for (int start = 0; start < lines.length; start += blockSize) {
+			futures.add(pool.submit(new SentenceBlock(lines, start, Math.min(lines.length, start + blockSize))));
+		}
+		pool.shutdown();
+		long count = 0;
+		try {
+			for (final Future<SentenceBlock> future : futures) {
+				final SentenceBlock block = future.get();
+				block.myPairs.mergeInto();
+				count += block.myWords;
+			}
+		} catch (final InterruptedException e) {
+			e.printStackTrace();
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			e.printStackTrace();
+		}
+		Metrics.stop("bigram.count", time, count);
+		Metrics.gauge("bigram.sentences", lines.length);
+	}
+
+	/**
+	 * Adds theCount occurrences of theWord following theContext, creating
+	 * nodes for either word if needed.
+	 * 
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 * @param theCount
+	 *            - the number of occurrences added.
+	 */
+	static void addCount(final String theContext, final String theWord, final int theCount) {
+		getOrAddNode(theContext).addCount(getOrAddNode(theWord), theCount);
+	}
+
+	/**
+	 * Adds the counts of every word following theContext, creating nodes for
+	 * any word if needed. The context's children are indexed once, so adding
+	 * a row does not search the child list for every word.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theRow
+	 *            - hashmap<theWord, theCount> of the words following
+	 *            theContext.
+	 */
+	static void addCounts(final String theContext, final Map<String, int[]> theRow) {
+		final Node context = getOrAddNode(theContext);
+		final HashMap<Node, Integer> index = context.indexChildren();
+		for (final Map.Entry<String, int[]> entry : theRow.entrySet()) {
+			context.addCount(getOrAddNode(entry.getKey()), entry.getValue()[0], index);
+		}
+	}
+
+	/**
+	 * Adds the counts of word pairs keyed by LongCounter.pair(). The keys are
+	 * sorted, so the pairs of each context come together and every context
+	 * is added as one row.
+	 *
+	 * @param thePairs
+	 *            - counts of the word pairs.
+	 * @param theVocabulary
+	 *            - the words of the ids in thePairs.
+	 */
+	static void addCounts(final LongCounter thePairs, final Vocabulary theVocabulary) {
+		final long[] keys = thePairs.sortedKeys();
+		final Map<String, int[]> row = new LinkedHashMap<String, int[]>();
+		int i = 0;
+		while (i < keys.length) {
+			final int context = LongCounter.first(keys[i]);
+			row.clear();
+			while (i < keys.length && LongCounter.first(keys[i]) == context) {
+				row.put(theVocabulary.getWord(LongCounter.second(keys[i])), new int[] { thePairs.get(keys[i]) });
+				i += 1;
+			}
+			addCounts(theVocabulary.getWord(context), row);
+		}
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word of the node.
+	 * @return the node of theWord, added to the graph if it was not there.
+	 */
+	private static Node getOrAddNode(final String theWord) {
+		Node node = myHashMap.get(theWord);
+		if (node == null) {
+			node = new Node(theWord);
+			myHashMap.put(theWord, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Iterates though string and counts each pair of words in an approximate
+	 * model of fixed size.
+	 * 
+	 * @param theString
+	 *            - the contents of a file converted to a string.
+	 */
+	private static void buildApproximateModel(final String theString) {
+		myApproximateModel = new ApproximateBigram(APPROXIMATE_MEMORY_BYTES, APPROXIMATE_DEPTH,
+				APPROXIMATE_HEAVY_HITTERS);
+		final long time = Metrics.start();
+		String prevWord = START_SYMBOL;
+		int count = 0;
+		myTokenizer.reset(theString);
+		while (myTokenizer.next()) {
+			final String word = myTokenizer.getToken();
+			myApproximateModel.add(prevWord, word);
+			prevWord = word;
+			count += 1;
+		}
+		// adds end symbol
+		myApproximateModel.add(prevWord, END_SYMBOL);
+		Metrics.stop("bigram.count", time, count);
+		Metrics.gauge("bigram.estimatedBytes", myApproximateModel.getMemoryBytes());
+	}
+
+	/**
+	 * @return true if MIN_COUNT or MAX_VOCABULARY is set.
+	 */
+	static boolean isPruning() {
+		return MIN_COUNT > 0 || MAX_VOCABULARY > 0;
+	}
+
+	/**
+	 * Merges every word below MIN_COUNT, or outside the MAX_VOCABULARY most
+	 * frequent words, into the unknown symbol. Edges to and from those words
+	 * become edges to and from the unknown symbol, so no counts are lost.
+	 * Prints how many words and edges were removed and the memory saved.
+	 */
+	static void pruneVocabulary() {
+		final long time = Metrics.start();
+		final HashSet<String> pruned = findPrunedWords();
+		if (pruned.isEmpty()) {
+			return;
+		}
+		final int wordsBefore = myHashMap.size();
+		final long edgesBefore = countEdges();
+		final long bytesBefore = estimateModelBytes();
+
+		Node unknown = myHashMap.get(UNKNOWN_SYMBOL);
+		if (unknown == null) {
+			unknown = new Node(UNKNOWN_SYMBOL);
+			myHashMap.put(UNKNOWN_SYMBOL, unknown);
+		}
+		// Positions of the unknown symbol's children, kept across every node
+		// merged into it so no merge searches its row.
+		final HashMap<Node, Integer> unknownIndex = unknown.indexChildren();
+		for (final Node node : new ArrayList<Node>(myHashMap.values())) {
+			final Node target = pruned.contains(node.getMyStringName()) ? unknown : node;
+			node.moveChildren(target, pruned, unknown,
+					target == unknown ? unknownIndex : new HashMap<Node, Integer>());
+		}
+		myHashMap.keySet().removeAll(pruned);
+		if (myBloomFilter != null) {
+			// Edges were moved to the unknown symbol, so the filter must learn them.
+			buildBloomFilter(Math.max(BLOOM_EXPECTED_PAIRS, countEdges()));
+		}
+
+		final long savedBytes = bytesBefore - estimateModelBytes();
+		System.out.println("Pruned " + (wordsBefore - myHashMap.size()) + " words and "
+				+ (edgesBefore - countEdges()) + " edges, saved about " + savedBytes + " bytes");
+		Metrics.increment("bigram.prune.words", wordsBefore - myHashMap.size());
+		Metrics.increment("bigram.prune.savedBytes", savedBytes);
+		Metrics.stop("bigram.prune", time);
+	}
+
+	/**
+	 * Finds the words that pruning will merge into the unknown symbol. A
+	 * word's count is the number of times it is followed by another word.
+	 * 
+	 * @return the names of the nodes to prune.
+	 */
+	private static HashSet<String> findPrunedWords() {
+		final List<Node> nodes = new ArrayList<Node>();
+		for (final Node node : myHashMap.values()) {
+			final String name = node.getMyStringName();
+			if (!name.equals(START_SYMBOL) && !name.equals(END_SYMBOL) && !name.equals(UNKNOWN_SYMBOL)) {
+				nodes.add(node);
+			}
+		}
+		// Most frequent first.
+		Collections.sort(nodes, new Comparator<Node>() {
+			@Override
+			public int compare(final Node theFirst, final Node theSecond) {
+				return Integer.compare(theSecond.getTotalOccurrences(), theFirst.getTotalOccurrences());
+			}
+		});
+		final HashSet<String> pruned = new HashSet<String>();
+		int index = 0;
+		for (final Node node : nodes) {
+			if (node.getTotalOccurrences() < MIN_COUNT || (MAX_VOCABULARY > 0 && index >= MAX_VOCABULARY)) {
+				pruned.add(node.getMyStringName());
+			}
+			index += 1;
+		}
+		return pruned;
+	}
+
+	/**
+	 * @return the number of edges in the graph.
+	 */
+	private static long countEdges() {
+		long edges = 0;
+		for (final Node node : myHashMap.values()) {
+			edges += node.getTotalChildren();
+		}
+		return edges;
+	}
+
+	/**
+	 * Sets the vocabulary size, edge count and estimated bytes gauges.
+	 */
+	private static void recordModelSize() {
+		if (Metrics.ENABLED) {
+			Metrics.gauge("bigram.vocabularySize", myHashMap.size());
+			Metrics.gauge("bigram.edgeCount", countEdges());
+			Metrics.gauge("bigram.estimatedBytes", estimateModelBytes());
+		}
+	}
+
+	/**
+	 * Estimates the heap used by the graph on a 64 bit JVM with compressed
+	 * pointers: the hashmap entry, string and node of each word, plus a
+	 * pointer, a count and a boxed integer for each edge.
+	 * 
+	 * @return the estimated number of bytes used by the graph.
+	 */
+	static long estimateModelBytes() {
+		long bytes = 0;
+		for (final Node node : myHashMap.values()) {
+			// hashmap entry + table slot, string + its array, node, two lists and their arrays.
+			bytes += 32 + 4 + 24 + 16 + align(node.getMyStringName().length() * 2) + 24 + 2 * (24 + 16);
+			// one pointer and one count per child, boxed integers above 127 are not shared.
+			bytes += node.getTotalChildren() * (4 + 4 + 16L);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param theBytes - size of an object.
+	 * @return the size rounded up to the 8 byte object alignment.
+	 */
+	private static long align(final long theBytes) {
+		return (theBytes + 7) & ~7L;
 	}
 
 	/**
@@ -146,11 +814,22 @@ public class Bigram {
 		 * pointer to the current node.
 		 */
 		if (myHashMap.containsKey(theNextString)) {
-			theCurrentNode.processNextNode(myHashMap.get(theNextString));
+			final Node node = myHashMap.get(theNextString);
+			if (myBloomFilter != null && !myBloomFilter.mightContain(
+					CountMinSketch.pairKey(theCurrentNode.getMyStringName(), theNextString))) {
+				// The pair was never seen, so there is no need to search the children.
+				theCurrentNode.addNode(node);
+				myBloomFilter.put(CountMinSketch.pairKey(theCurrentNode.getMyStringName(), theNextString));
+			} else {
+				theCurrentNode.processNextNode(node);
+			}
 		} else {
 			final Node node = new Node(theNextString);
 			myHashMap.put(theNextString, node);
 			theCurrentNode.processNextNode(node);
+			if (myBloomFilter != null) {
+				myBloomFilter.put(CountMinSketch.pairKey(theCurrentNode.getMyStringName(), theNextString));
+			}
 		}
 	}
 
@@ -162,6 +841,11 @@ public class Bigram {
 	 *            - name of the file being written out.
 	 */
 	private static void writeProbabilities(final String theOutfileName) {
+		if (APPROXIMATE) {
+			// Pairs can not be listed from a sketch, so write its summary instead.
+			writeFile(myApproximateModel.describe(), theOutfileName);
+			return;
+		}
 		final List<Node> nodeList = new ArrayList<Node>(myHashMap.values());
 		List<String> probList = new ArrayList<String>();
 
@@ -174,7 +858,9 @@ public class Bigram {
 		// Gets the first 100 lines of the list.
 		probList = probList.subList(0, NUMBER_OF_LINES);
 		// writes all probabilities to file.
+		final long time = Metrics.start();
 		writeFile(probList, OUT_FILE_NAME_ONE);
+		Metrics.stop("bigram.write", time, probList.size());
 	}
 	
 	/**
@@ -207,22 +893,44 @@ public class Bigram {
 	 * @return A list of doubles representing the perplexity of each line of theString.
 	 */
 	private static List<Double> evaluateStringPerplexities(final String theString) {
-		// Creates list, separates each line, and removes empty strings.
+		if (LINE_SCORING && myFrozenModel != null) {
+			final double[] scores = new double[NUMBER_OF_LINES];
+			final int count = new LineScorer(myFrozenModel, SENTENCES).scoreLines(theString, scores);
+			final List<Double> perplexities = new ArrayList<Double>(count);
+			for (int i = 0; i < count; i++) {
+				perplexities.add(scores[i]);
+			}
+			return perplexities;
+		}
+		// Creates list, separates each line, and removes lines with no words,
+		// whose perplexity is not defined.
 		final List<String> result = new ArrayList<String>();
-		result.addAll(Arrays.asList(theString.split(System.lineSeparator(), theString.length())));
-		while(result.contains("")) {
-			result.remove("");
+		for (final String line : theString.split(System.lineSeparator(), theString.length())) {
+			if (myTokenizer.countTokens(line) > 0) {
+				result.add(line);
+			}
 		}
 		final List<Double> perplexities = new ArrayList<Double>();
+		if (BATCH_SCORING && myFrozenModel != null) {
+			final List<String> lines = result.subList(0, NUMBER_OF_LINES);
+			final double[] scores = new double[lines.size()];
+			new BatchScorer(myFrozenModel, SENTENCES).score(lines, scores);
+			for (final double score : scores) {
+				perplexities.add(score);
+			}
+			return perplexities;
+		}
 		
 		// Calculate each line perplexity and add to list.
 		String line = "";
 		for (int i = 0; i < NUMBER_OF_LINES; i++) {
 			line = result.get(i);
 			if (!"".equals(line)) {
+				final long time = Metrics.start();
 				final double jointProb = calculateLineProbability(line);
-				// how many words are in the line.
-				final int linelength = line.split(" ").length;
+				Metrics.stop("bigram.score", time, 1);
+				// how many words are in the line, and the end symbol for sentences.
+				final int linelength = myTokenizer.countTokens(line) + (SENTENCES ? 1 : 0);
 				perplexities.add(calculateLinePerplexity(linelength, jointProb));
 			}
 		}
@@ -236,18 +944,111 @@ public class Bigram {
 	 * @return the joint probability of the sequence of words in that line.
 	 */
 	private static double calculateLineProbability(final String theLine) {
-		final String[] string = theLine.split(" ");
+		if (myLineCache != null) {
+			final Double cached = myLineCache.get(theLine);
+			if (cached != null) {
+				return cached;
+			}
+		}
 		Double lineProbability = 1.0;
-		final String prevWord = START_SYMBOL;
-		for (final String word : string) {
-			if (!myHashMap.get(prevWord).isChild(word)){
+		String prevWord = START_SYMBOL;
+		myTokenizer.reset(theLine);
+		while (myTokenizer.next()) {
+			final String word = myTokenizer.getToken();
+			final double probability = getProbability(prevWord, word);
+			if (probability == 0.0){
 				lineProbability = 0.0;
 				break;
 			} 
-			lineProbability *= 	myHashMap.get(prevWord).getProbability(word);	
+			lineProbability *= probability;
+			prevWord = word;
+		}
+		// A sentence model also predicts where the line ends.
+		if (SENTENCES && lineProbability != 0.0) {
+			lineProbability *= getProbability(prevWord, END_SYMBOL);
+		}
+		if (myLineCache != null) {
+			myLineCache.put(theLine, lineProbability);
 		}
 		return lineProbability;
 	}
+
+	/**
+	 * Gets the probability of a word following a context word, from the
+	 * approximate model or from the graph.
+	 * 
+	 * @param theContext - the previous word.
+	 * @param theWord - the word following theContext.
+	 * @return the probability, 0 if the pair was never seen.
+	 */
+	private static double getProbability(final String theContext, final String theWord) {
+		if (APPROXIMATE) {
+			return myApproximateModel.getProbability(theContext, theWord);
+		}
+		final String context = toVocabulary(theContext);
+		final String word = toVocabulary(theWord);
+		if (myBloomFilter != null) {
+			if (!myBloomFilter.mightContain(CountMinSketch.pairKey(context, word))) {
+				myBloomRejects += 1;
+				Metrics.increment("bigram.bloom.rejects", 1);
+				return 0.0;
+			}
+			myBloomPasses += 1;
+			Metrics.increment("bigram.bloom.passes", 1);
+		}
+		if (myTieredModel != null) {
+			return Math.exp(myTieredModel.getLogProbability(context, word));
+		}
+		if (myFrozenModel != null) {
+			return Math.exp(myFrozenModel.getLogProbability(context, word));
+		}
+		if (myContextCache == null) {
+			// Without a cache, read the one child instead of building a row.
+			final Node node = myHashMap.get(context);
+			return node == null ? 0.0 : node.getChildProbability(word);
+		}
+		final Double probability = getContextRow(context).get(word);
+		return probability == null ? 0.0 : probability;
+	}
+
+	/**
+	 * Maps words that were pruned from the vocabulary to the unknown symbol.
+	 * 
+	 * @param theWord - the word being looked up.
+	 * @return theWord, or UNKNOWN_SYMBOL if it is not in the pruned vocabulary.
+	 */
+	private static String toVocabulary(final String theWord) {
+		if (myHashMap == null) {
+			// Scoring against a tiered model, which knows its own vocabulary.
+			return myTieredModel.getId(theWord) < 0 ? UNKNOWN_SYMBOL : theWord;
+		}
+		if (isPruning() && !myHashMap.containsKey(theWord)) {
+			return UNKNOWN_SYMBOL;
+		}
+		return theWord;
+	}
+
+	/**
+	 * Gets the probability of every child of a context node, using the context
+	 * cache when it is turned on.
+	 * 
+	 * @param theContext - name of the context node.
+	 * @return hashmap<theChildName, theProbability> for the context node.
+	 */
+	private static HashMap<String, Double> getContextRow(final String theContext) {
+		HashMap<String, Double> row = null;
+		if (myContextCache != null) {
+			row = myContextCache.get(theContext);
+		}
+		if (row == null) {
+			final Node node = myHashMap.get(theContext);
+			row = node == null ? EMPTY_ROW : node.getProbabilityRow();
+			if (myContextCache != null) {
+				myContextCache.put(theContext, row);
+			}
+		}
+		return row;
+	}
 	
 	/**
 	 * Calculates the perplexity given the number of words in a line and the joint 
@@ -263,7 +1064,134 @@ public class Bigram {
 		perplexity = 1.0 / (Math.pow(theLineProbability, (1.0/theLineLength)));
 		return perplexity;
 	}
-	
+
+	/**
+	 * The graph and the models built from it, kept aside by saveModels().
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	static class Models {
+
+		private final HashMap<String, Node> myGraph;
+		private final FrozenBigram myFrozen;
+		private final TieredBigram myTiered;
+		private final BloomFilter myBloom;
+
+		/**
+		 * Models constructor.
+		 *
+		 * @param theGraph - the node graph, null once a tiered model is open.
+		 * @param theFrozen - the frozen model, or null.
+		 * @param theTiered - the tiered model, or null.
+		 * @param theBloom - the Bloom filter, or null.
+		 */
+		Models(final HashMap<String, Node> theGraph, final FrozenBigram theFrozen, final TieredBigram theTiered,
+				final BloomFilter theBloom) {
+			myGraph = theGraph;
+			myFrozen = theFrozen;
+			myTiered = theTiered;
+			myBloom = theBloom;
+		}
+	}
+
+	/**
+	 * Collects the merged pairs of one context at a time and adds each
+	 * context's pairs to the graph as one row.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class ContextRows implements SpillingBigramCounter.PairHandler {
+
+		/**
+		 * Context of the row being collected, null before the first pair.
+		 */
+		private String myContext;
+
+		/**
+		 * Hashmap<theWord, theCount> of the row, kept in sorted order so
+		 * children are added in the same order as one by one.
+		 */
+		private final Map<String, int[]> myRow = new LinkedHashMap<String, int[]>();
+
+		@Override
+		public void pair(final String theContext, final String theWord, final int theCount) {
+			if (!theContext.equals(myContext)) {
+				flush();
+				myContext = theContext;
+			}
+			myRow.put(theWord, new int[] { theCount });
+		}
+
+		/**
+		 * Adds the row being collected to the graph.
+		 */
+		void flush() {
+			if (myContext != null) {
+				addCounts(myContext, myRow);
+			}
+			myRow.clear();
+		}
+	}
+
+	/**
+	 * Counts the word pairs of a block of lines, each line going from the start
+	 * symbol to the end symbol.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class SentenceBlock implements Callable<SentenceBlock> {
+
+		/**
+		 * Every line of the file, and the block of them this counts.
+		 */
+		private final String[] myLines;
+		private final int myStart;
+		private final int myEnd;
+
+		/**
+		 * Pair counts of this block, and the number of words counted.
+		 */
+		private final PairCounts myPairs = new PairCounts();
+		private long myWords;
+
+		/**
+		 * SentenceBlock constructor.
+		 *
+		 * @param theLines - every line of the file.
+		 * @param theStart - index of the first line of the block.
+		 * @param theEnd - index after the last line of the block.
+		 */
+		SentenceBlock(final String[] theLines, final int theStart, final int theEnd) {
+			myLines = theLines;
+			myStart = theStart;
+			myEnd = theEnd;
+		}
+
+		@Override
+		public SentenceBlock call() {
+			final Tokenizer tokenizer = new Tokenizer();
+			for (int i = myStart; i < myEnd; i++) {
+				String prevWord = START_SYMBOL;
+				int lineWords = 0;
+				tokenizer.reset(myLines[i]);
+				while (tokenizer.next()) {
+					final String word = tokenizer.getToken();
+					myPairs.add(prevWord, word);
+					prevWord = word;
+					lineWords += 1;
+				}
+				myWords += lineWords;
+				// Blank lines are not sentences.
+				if (lineWords > 0) {
+					myPairs.add(prevWord, END_SYMBOL);
+				}
+			}
+			return this;
+		}
+	}
 
 	/**
 	 * Node that contains the string of the word, two parallel arrays to keep
@@ -339,6 +1267,88 @@ public class Bigram {
 			myIntList.add(1);
 		}
 
+		/**
+		 * Adds theCount occurrences of a child node, adding the node if it is
+		 * not a child yet.
+		 * 
+		 * @param theNextNode
+		 *            - the node following our current node (this).
+		 * @param theCount
+		 *            - the number of occurrences added.
+		 */
+		public void addCount(final Node theNextNode, final int theCount) {
+			final int index = myNodeList.indexOf(theNextNode);
+			if (index < 0) {
+				myNodeList.add(theNextNode);
+				myIntList.add(theCount);
+			} else {
+				myIntList.set(index, myIntList.get(index) + theCount);
+			}
+		}
+
+		/**
+		 * Adds theCount occurrences of a child node, finding it through an
+		 * index of this node's children instead of searching the list.
+		 * 
+		 * @param theNextNode
+		 *            - the node following our current node (this).
+		 * @param theCount
+		 *            - the number of occurrences added.
+		 * @param theIndex
+		 *            - hashmap<theChild, itsIndex> of this node's children,
+		 *            from indexChildren(), kept up to date.
+		 */
+		public void addCount(final Node theNextNode, final int theCount, final Map<Node, Integer> theIndex) {
+			final Integer index = theIndex.get(theNextNode);
+			if (index == null) {
+				theIndex.put(theNextNode, myNodeList.size());
+				myNodeList.add(theNextNode);
+				myIntList.add(theCount);
+			} else {
+				myIntList.set(index, myIntList.get(index) + theCount);
+			}
+		}
+
+		/**
+		 * @return hashmap<theChild, itsIndex> of every child of this node.
+		 */
+		public HashMap<Node, Integer> indexChildren() {
+			final HashMap<Node, Integer> index = new HashMap<Node, Integer>();
+			for (int i = 0; i < myNodeList.size(); i++) {
+				index.put(myNodeList.get(i), i);
+			}
+			return index;
+		}
+
+		/**
+		 * Moves every child of this node to theTarget, replacing children that
+		 * are being pruned with theUnknown. theTarget may be this node.
+		 * 
+		 * @param theTarget
+		 *            - the node receiving the children.
+		 * @param thePruned
+		 *            - names of the nodes being pruned.
+		 * @param theUnknown
+		 *            - the node that replaces pruned nodes.
+		 * @param theTargetIndex
+		 *            - index of theTarget's children, from indexChildren().
+		 */
+		public void moveChildren(final Node theTarget, final Set<String> thePruned, final Node theUnknown,
+				final Map<Node, Integer> theTargetIndex) {
+			final List<Node> nodes = new ArrayList<Node>(myNodeList);
+			final List<Integer> counts = new ArrayList<Integer>(myIntList);
+			myNodeList.clear();
+			myIntList.clear();
+			if (theTarget == this) {
+				// The children are added back into an empty list.
+				theTargetIndex.clear();
+			}
+			for (int i = 0; i < nodes.size(); i++) {
+				final Node child = thePruned.contains(nodes.get(i).myStringName) ? theUnknown : nodes.get(i);
+				theTarget.addCount(child, counts.get(i), theTargetIndex);
+			}
+		}
+
 		/**
 		 * Increments count for node in myIndexArray.
 		 * 
@@ -382,6 +1392,38 @@ public class Bigram {
 			return probList;
 		}
 
+		/**
+		 * Calculates the probability of every child node at once.
+		 * 
+		 * @return hashmap<theChildName, theProbability> for this node.
+		 */
+		public HashMap<String, Double> getProbabilityRow() {
+			final HashMap<String, Double> row = new HashMap<String, Double>();
+			final double total = getTotalOccurrences();
+			int index = 0;
+			for (final Node node : myNodeList) {
+				row.put(node.myStringName, myIntList.get(index) / total);
+				index += 1;
+			}
+			return row;
+		}
+
+		/**
+		 * Gets the probability of one child node without building the row of
+		 * every child.
+		 * 
+		 * @param theChildName - name of the child node.
+		 * @return the probability that the child follows this node, 0 if it
+		 *         never does.
+		 */
+		public double getChildProbability(final String theChildName) {
+			final int index = getNodeIndex(theChildName);
+			if (index == myNodeList.size()) {
+				return 0.0;
+			}
+			return (double) myIntList.get(index) / getTotalOccurrences();
+		}
+
 		/**
 		 * @return myStringName
 		 */
@@ -395,6 +1437,22 @@ public class Bigram {
 		public int getTotalChildren() {
 			return myNodeList.size();
 		}
+
+		/**
+		 * @param theIndex - index of a child node in myNodeArray.
+		 * @return the number of times that child follows this node.
+		 */
+		public int getChildCount(final int theIndex) {
+			return myIntList.get(theIndex);
+		}
+
+		/**
+		 * @param theIndex - index of a child node in myNodeArray.
+		 * @return the name of that child.
+		 */
+		public String getChildName(final int theIndex) {
+			return myNodeList.get(theIndex).myStringName;
+		}
 		
 		/**
 		 * Checks if the name of the node matches any of the children nodes
@@ -6,7 +6,6 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -55,7 +54,23 @@ public class BigramSmooth {
 	 */
 	private static HashMap<String, Node> myHashMap;
 
+	/**
+	 * @param args
+	 *            - "sweep" to score FILE_NAME_TWO under a grid of smoothing
+	 *            settings with a SmoothingSweep instead.
+	 */
 	public static void main(final String[] args) {
+		if (args.length > 0 && "sweep".equals(args[0])) {
+			try {
+				SmoothingSweep.main(args);
+			} catch (final IOException e) {
+				e.printStackTrace();
+			} catch (final InterruptedException e) {
+				e.printStackTrace();
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
 		// Initialize Hashmap.
 		myHashMap = new HashMap<String, Node>();
 		final Node startSymbol = new Node(START_SYMBOL);
@@ -214,11 +229,13 @@ public class BigramSmooth {
 	 *         theString.
 	 */
 	private static List<Double> evaluateStringPerplexities(final String theString) {
-		// Creates list, separates each line, and removes empty strings.
+		// Creates list, separates each line, and removes lines with no words,
+		// whose perplexity is not defined.
 		final List<String> result = new ArrayList<String>();
-		result.addAll(Arrays.asList(theString.split(System.lineSeparator(), theString.length())));
-		while (result.contains("")) {
-			result.remove("");
+		for (final String line : theString.split(System.lineSeparator(), theString.length())) {
+			if (!"".equals(line.trim())) {
+				result.add(line);
+			}
 		}
 		final List<Double> perplexities = new ArrayList<Double>();
 
@@ -0,0 +1,131 @@
+/**
+ * A Bloom filter over long keys. It answers whether a key might have been
+ * added: a "no" is always right, a "yes" is wrong with about the false
+ * positive rate the filter was sized for.
+ *
+ * The number of bits and hash functions are worked out from the expected
+ * number of keys and the wanted false positive rate. Each key is mixed once
+ * into a 64 bit hash whose two halves are combined to give every bit
+ * position.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class BloomFilter {
+
+	/**
+	 * Bits of the filter, 64 per long.
+	 */
+	private final long[] myBits;
+
+	/**
+	 * Number of bits and number of hash functions.
+	 */
+	private final long myBitCount;
+	private final int myHashCount;
+
+	/**
+	 * Number of keys added.
+	 */
+	private long mySize;
+
+	/**
+	 * BloomFilter constructor.
+	 *
+	 * @param theExpectedKeys
+	 *            - number of keys expected to be added.
+	 * @param theFalsePositiveRate
+	 *            - wanted chance of a wrong "yes", between 0 and 1.
+	 */
+	public BloomFilter(final long theExpectedKeys, final double theFalsePositiveRate) {
+		if (theFalsePositiveRate <= 0.0 || theFalsePositiveRate >= 1.0) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + theFalsePositiveRate);
+		}
+		final long keys = Math.max(1, theExpectedKeys);
+		// m = -n ln(p) / (ln 2)^2 and k = (m / n) ln 2
+		final long bits = (long) Math.ceil(-keys * Math.log(theFalsePositiveRate) / (Math.log(2) * Math.log(2)));
+		myBits = new long[(int) Math.max(1, (bits + 63) / 64)];
+		myBitCount = 64L * myBits.length;
+		myHashCount = (int) Math.max(1, Math.round((double) myBitCount / keys * Math.log(2)));
+	}
+
+	/**
+	 * Adds a key.
+	 *
+	 * @param theKey
+	 *            - the key being added.
+	 */
+	public void put(final long theKey) {
+		final long hash = mix(theKey);
+		final int first = (int) hash;
+		final int second = (int) (hash >>> 32);
+		for (int i = 1; i <= myHashCount; i++) {
+			final long bit = ((first + (long) i * second) & Long.MAX_VALUE) % myBitCount;
+			myBits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		mySize += 1;
+	}
+
+	/**
+	 * Checks whether a key might have been added.
+	 *
+	 * @param theKey
+	 *            - the key being looked up.
+	 * @return false if the key was never added, true if it might have been.
+	 */
+	public boolean mightContain(final long theKey) {
+		final long hash = mix(theKey);
+		final int first = (int) hash;
+		final int second = (int) (hash >>> 32);
+		for (int i = 1; i <= myHashCount; i++) {
+			final long bit = ((first + (long) i * second) & Long.MAX_VALUE) % myBitCount;
+			if ((myBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the chance of a wrong "yes" given the keys added so far.
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1.0 - Math.exp(-(double) myHashCount * mySize / myBitCount), myHashCount);
+	}
+
+	/**
+	 * @return the number of keys added.
+	 */
+	public long size() {
+		return mySize;
+	}
+
+	/**
+	 * @return the number of bytes used by the bits.
+	 */
+	public long getMemoryBytes() {
+		return 8L * myBits.length;
+	}
+
+	/**
+	 * @return the number of hash functions.
+	 */
+	public int getHashCount() {
+		return myHashCount;
+	}
+
+	/**
+	 * Spreads the bits of a key over the whole 64 bit hash.
+	 *
+	 * @param theKey
+	 *            - the key.
+	 * @return the mixed hash.
+	 */
+	private static long mix(final long theKey) {
+		long hash = theKey;
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return hash ^ (hash >>> 33);
+	}
+}
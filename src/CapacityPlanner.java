@@ -0,0 +1,677 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how much heap a bigram graph uses, and plans a training run
+ * before it starts by projecting the size of the model from a prefix of the
+ * corpus.
+ *
+ * measure() walks a graph and adds up the bytes of every object in it, on a
+ * 64 bit JVM with compressed pointers (12 byte headers, 4 byte pointers, 8
+ * byte alignment), split into the vocabulary hashmap and its Strings, the
+ * Node objects, the two lists of successors and the boxed counts. List
+ * capacities are worked out from how ArrayList grows, since they can not be
+ * read. Pruning clears and refills lists, which keep their larger arrays,
+ * so for a graph pruned in place measure() is a lower bound. plan() records
+ * the children of every node before it prunes and measures with them.
+ *
+ * plan() trains graphs on SAMPLE_STEPS growing prefixes of the first
+ * SAMPLE_CHARS chars of a corpus. The vocabulary, the edges and the training
+ * time of each prefix are fitted to power laws of the number of tokens, as
+ * in Heaps' law, and projected to the size of the whole corpus. From the
+ * projected sizes it recommends a training mode (exact, pruned to a largest
+ * vocabulary every PRUNE_INTERVAL words, or approximate) and a serving mode
+ * (frozen, or tiered, loading a file written on a larger heap with the long
+ * tail mapped) that fit within HEAP_BUDGET_BYTES.
+ *
+ * Planning uses Bigram's own training and pruning code on Bigram's graph, so
+ * Bigram's models are kept aside while it runs and given back when it ends.
+ * The kept models stay on the heap next to the graphs being planned with.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class CapacityPlanner {
+
+	/**
+	 * Number of chars read from the start of the corpus, and the number of
+	 * prefixes of them trained on.
+	 */
+	public static int SAMPLE_CHARS = 4 * 1024 * 1024;
+	public static int SAMPLE_STEPS = 4;
+
+	/**
+	 * Untimed training runs on the smallest prefix, so the JIT has compiled
+	 * the training code before it is timed.
+	 */
+	public static int WARMUP_RUNS = 5;
+
+	/**
+	 * Heap a run may use, and the fraction of it the model may fill, leaving
+	 * the rest for the garbage collector and short lived objects.
+	 */
+	public static long HEAP_BUDGET_BYTES = Runtime.getRuntime().maxMemory();
+	public static double HEAP_FILL = 0.6;
+
+	/**
+	 * Pruning is only recommended if it keeps at least this many words,
+	 * otherwise the approximate model is.
+	 */
+	public static int MIN_PRUNED_VOCABULARY = 10000;
+
+	/**
+	 * Share of the training budget given to the pruned graph when pruning is
+	 * recommended. The rest holds what the words counted between two prunes
+	 * add, which sets PRUNE_INTERVAL.
+	 */
+	public static double PRUNE_SHARE = 0.5;
+
+	/**
+	 * Number of times the largest prefix is pruned, each time to half the
+	 * words of the last, to measure how pruning shrinks the graph.
+	 */
+	public static int PRUNE_STEPS = 5;
+
+	/**
+	 * Sizes of objects on a 64 bit JVM with compressed pointers.
+	 */
+	private static final int HEADER = 12;
+	private static final int POINTER = 4;
+	private static final int ARRAY_HEADER = 16;
+
+	/**
+	 * True from Java 9 on, where Strings of chars below 256 keep one byte per
+	 * char.
+	 */
+	private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version")
+			.startsWith("1.");
+
+	/**
+	 * Measures the heap used by a graph, taking every list to have grown one
+	 * child at a time. For a graph that was pruned this is a lower bound.
+	 *
+	 * @param theGraph
+	 *            - hashmap<theStringName, theNode> built during training.
+	 * @return the bytes used by each part of the graph.
+	 */
+	public static Footprint measure(final Map<String, Bigram.Node> theGraph) {
+		return measure(theGraph, Collections.<String, Integer> emptyMap());
+	}
+
+	/**
+	 * Measures the heap used by a graph whose lists may once have held more
+	 * children than they do now. A list that is cleared and refilled, as
+	 * pruning does, keeps the array it grew to, so its capacity is worked out
+	 * from the most children it held.
+	 *
+	 * @param theGraph
+	 *            - hashmap<theStringName, theNode> built during training.
+	 * @param thePeakChildren
+	 *            - hashmap<theStringName, theChildren> of the most children
+	 *            each node held, for nodes that may have held more than now.
+	 * @return the bytes used by each part of the graph.
+	 */
+	static Footprint measure(final Map<String, Bigram.Node> theGraph, final Map<String, Integer> thePeakChildren) {
+		// The hashmap, its table and one entry per word: hash, key, value
+		// and next pointer.
+		long vocabulary = align(HEADER + 6 * 4) + align(ARRAY_HEADER + (long) POINTER * tableSize(theGraph.size()));
+		long nodes = 0;
+		long lists = 0;
+		long counts = 0;
+		long edges = 0;
+		for (final Bigram.Node node : theGraph.values()) {
+			final int children = node.getTotalChildren();
+			vocabulary += align(HEADER + 4 * POINTER) + stringBytes(node.getMyStringName());
+			// A name and two lists.
+			nodes += align(HEADER + 3 * POINTER);
+			// Two lists, each with a size, a modification count and an array.
+			final Integer peak = thePeakChildren.get(node.getMyStringName());
+			lists += 2 * (align(HEADER + 4 + 4 + POINTER)
+					+ arrayBytes(capacity(peak == null ? children : Math.max(children, peak))));
+			for (int i = 0; i < children; i++) {
+				final int count = node.getChildCount(i);
+				// Integer.valueOf shares the boxes of -128 to 127.
+				if (count < -128 || count > 127) {
+					counts += align(HEADER + 4);
+				}
+			}
+			edges += children;
+		}
+		return new Footprint(theGraph.size(), edges, vocabulary, nodes, lists, counts);
+	}
+
+	/**
+	 * @param theSize
+	 *            - number of entries in a hashmap.
+	 * @return the length of its table, the smallest power of two holding
+	 *         theSize entries at a load factor of 0.75.
+	 */
+	private static int tableSize(final int theSize) {
+		int table = 16;
+		while (table * 0.75 < theSize) {
+			table *= 2;
+		}
+		return table;
+	}
+
+	/**
+	 * @param theSize
+	 *            - the most elements an ArrayList has held, added one at a
+	 *            time.
+	 * @return the length of its array, 0 while it is empty, then 10 growing
+	 *         by half each time it is full. Clearing a list does not shrink
+	 *         its array.
+	 */
+	private static int capacity(final int theSize) {
+		if (theSize == 0) {
+			return 0;
+		}
+		int capacity = 10;
+		while (capacity < theSize) {
+			capacity += capacity >> 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * @param theLength
+	 *            - length of an array of pointers.
+	 * @return the bytes used by the array, 0 for the shared empty array.
+	 */
+	private static long arrayBytes(final int theLength) {
+		return theLength == 0 ? 0 : align(ARRAY_HEADER + (long) POINTER * theLength);
+	}
+
+	/**
+	 * @param theString
+	 *            - a String.
+	 * @return the bytes used by the String and its array.
+	 */
+	private static long stringBytes(final String theString) {
+		return align(HEADER + POINTER + 4) + align(ARRAY_HEADER + charBytes(theString) * theString.length());
+	}
+
+	/**
+	 * @param theString
+	 *            - a String.
+	 * @return the bytes the String keeps per char.
+	 */
+	private static int charBytes(final String theString) {
+		if (!COMPACT_STRINGS) {
+			return 2;
+		}
+		for (int i = 0; i < theString.length(); i++) {
+			if (theString.charAt(i) >= 256) {
+				return 2;
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * @param theBytes
+	 *            - size of an object.
+	 * @return the size rounded up to the 8 byte object alignment.
+	 */
+	private static long align(final long theBytes) {
+		return (theBytes + 7) & ~7L;
+	}
+
+	/**
+	 * Projects the size of a model trained on a whole corpus from prefixes
+	 * of it, and recommends how to train and serve it. Bigram's models are
+	 * kept aside while the prefixes are trained and given back at the end.
+	 *
+	 * @param theFileName
+	 *            - the corpus.
+	 * @return the projection, one line per entry.
+	 * @throws IOException
+	 *             if the corpus can not be read.
+	 */
+	public static List<String> plan(final String theFileName) throws IOException {
+		final Bigram.Models models = Bigram.saveModels();
+		try {
+			return project(theFileName);
+		} finally {
+			Bigram.restoreModels(models);
+		}
+	}
+
+	/**
+	 * Does the work of plan() with Bigram's graph.
+	 *
+	 * @param theFileName
+	 *            - the corpus.
+	 * @return the projection, one line per entry.
+	 * @throws IOException
+	 *             if the corpus can not be read.
+	 */
+	private static List<String> project(final String theFileName) throws IOException {
+		final File file = new File(theFileName);
+		final String sample = readPrefix(file, SAMPLE_CHARS);
+		final long sampleBytes = sample.getBytes(StandardCharsets.UTF_8).length;
+		final boolean isWhole = sampleBytes >= file.length();
+
+		final int steps = Math.max(2, SAMPLE_STEPS);
+		final String[] prefixes = new String[steps];
+		for (int step = 0; step < steps; step++) {
+			prefixes[step] = sample.substring(0, cut(sample, (int) ((long) sample.length() * (step + 1) / steps)));
+		}
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			train(prefixes[0]);
+		}
+		final double[] tokens = new double[steps];
+		final double[] words = new double[steps];
+		final double[] edges = new double[steps];
+		final double[] bytes = new double[steps];
+		final double[] nanos = new double[steps];
+		Footprint footprint = null;
+		for (int step = 0; step < steps; step++) {
+			tokens[step] = new Tokenizer().countTokens(prefixes[step]);
+			nanos[step] = train(prefixes[step]);
+			footprint = measure(Bigram.getGraph());
+			words[step] = footprint.myWords;
+			edges[step] = footprint.myEdges;
+			bytes[step] = footprint.getTotalBytes();
+		}
+		final FrozenBigram frozen = new FrozenBigram(Bigram.getGraph(), Bigram.QUANTIZATION_BITS);
+
+		// Project from the largest prefix along the fitted exponents.
+		final double sampleTokens = tokens[steps - 1];
+		final double fullTokens = isWhole ? sampleTokens : sampleTokens * file.length() / sampleBytes;
+		final double wordExponent = fitExponent(tokens, words);
+		final double edgeExponent = fitExponent(tokens, edges);
+		final double bytesExponent = fitExponent(tokens, bytes);
+		final double timeExponent = fitExponent(tokens, nanos);
+		final double scale = fullTokens / sampleTokens;
+		final double fullWords = words[steps - 1] * Math.pow(scale, wordExponent);
+		final double fullEdges = edges[steps - 1] * Math.pow(scale, edgeExponent);
+		final double fullNanos = nanos[steps - 1] * Math.pow(scale, timeExponent);
+		final double graphBytes = bytes[steps - 1] * Math.pow(scale, bytesExponent);
+		// Bigram reads the whole corpus into one String before training.
+		final double textBytes = (double) charBytes(sample) * fullTokens * sample.length() / sampleTokens;
+		final double budget = HEAP_BUDGET_BYTES * HEAP_FILL;
+
+		// Training needs the text and the graph on the heap at once.
+		final double trainingBudget = budget - textBytes;
+		final String training;
+		boolean isGraph = true;
+		// Words, edges and bytes of the graph once training is done.
+		double trainedWords = fullWords;
+		double trainedEdges = fullEdges;
+		double trainedBytes = graphBytes;
+		if (trainingBudget <= 0) {
+			training = "none, the text alone needs " + (long) textBytes + " bytes";
+			isGraph = false;
+		} else if (graphBytes <= trainingBudget) {
+			training = "exact";
+		} else {
+			// Shares of the bytes and edges of the largest prefix kept when it
+			// is pruned to fractions of its words, taken to hold for the
+			// whole corpus.
+			final int pruneSteps = Math.max(1, PRUNE_STEPS);
+			final double[] fractions = new double[pruneSteps + 1];
+			final double[] byteShares = new double[pruneSteps + 1];
+			final double[] edgeShares = new double[pruneSteps + 1];
+			fractions[0] = 1.0;
+			byteShares[0] = 1.0;
+			edgeShares[0] = 1.0;
+			for (int i = 1; i <= pruneSteps; i++) {
+				fractions[i] = fractions[i - 1] / 2;
+				train(prefixes[steps - 1]);
+				final Footprint pruned = prune((int) Math.max(1, words[steps - 1] * fractions[i]));
+				byteShares[i] = pruned.getTotalBytes() / bytes[steps - 1];
+				edgeShares[i] = pruned.myEdges / edges[steps - 1];
+			}
+			// Between two prunes the graph holds the pruned vocabulary and what
+			// the words since the last prune added, which is at most the graph
+			// of those words alone.
+			final long largest = largestVocabulary(trainingBudget * PRUNE_SHARE, fullWords, graphBytes, fractions,
+					byteShares);
+			final double prunedBytes = graphBytes * share(fractions, byteShares, largest / fullWords);
+			final double interval = Math.min(Integer.MAX_VALUE,
+					sampleTokens * Math.pow((trainingBudget - prunedBytes) / bytes[steps - 1], 1 / bytesExponent));
+			if (largest >= MIN_PRUNED_VOCABULARY && interval >= 1) {
+				final double peakBytes = prunedBytes
+						+ bytes[steps - 1] * Math.pow((long) interval / sampleTokens, bytesExponent);
+				training = "pruned, MAX_VOCABULARY = " + largest + ", PRUNE_INTERVAL = " + (long) interval
+						+ ", peak graph " + (long) peakBytes + " bytes";
+				trainedWords = largest;
+				trainedEdges = fullEdges * share(fractions, edgeShares, largest / fullWords);
+				trainedBytes = prunedBytes;
+			} else {
+				training = "approximate, APPROXIMATE = true, APPROXIMATE_MEMORY_BYTES = "
+						+ Math.min(Bigram.APPROXIMATE_MEMORY_BYTES, (long) trainingBudget);
+				isGraph = false;
+			}
+		}
+
+		final double frozenWordBytes = (double) (frozen.getVocabulary().getMemoryBytes()
+				+ 4L * frozen.getVocabularySize()) / frozen.getVocabularySize();
+		final double frozenEdgeBytes = (double) (frozen.getMemoryBytes() - frozen.getVocabulary().getMemoryBytes()
+				- 4L * frozen.getVocabularySize()) / Math.max(1, frozen.getEdgeCount());
+		final double frozenBytes = frozenWordBytes * trainedWords + frozenEdgeBytes * trainedEdges;
+		// A row start per word, and a child and a log probability or a code per
+		// edge.
+		final double mappedBytes = 4.0 * trainedWords
+				+ (4.0 + (frozen.getBits() == 0 ? 8.0 : frozen.getBits() / 8.0)) * trainedEdges;
+		// Freezing keeps the text, the graph and the frozen model on the heap
+		// at once, and so does writing a tiered file.
+		final double freezeBytes = textBytes + trainedBytes + frozenBytes;
+
+		final String serving;
+		if (trainingBudget <= 0) {
+			serving = "none";
+		} else if (!isGraph) {
+			serving = "approximate";
+		} else if (freezeBytes <= budget) {
+			serving = "frozen, FREEZE = true";
+		} else {
+			// Served from the file, the perfect hash and two ints per word stay
+			// on the heap and hot rows take 12 bytes per edge.
+			final double heapWords = (frozen.getVocabulary().getMemoryBytes() / (double) frozen.getVocabularySize()
+					+ 8) * trainedWords;
+			if (heapWords > budget) {
+				serving = "none, the vocabulary alone needs " + (long) heapWords + " bytes";
+			} else {
+				final long hotEdges = (long) Math.min(trainedEdges, (budget - heapWords) / 12);
+				serving = "tiered from a file, write it with TIERED = true on a heap of "
+						+ (long) (freezeBytes / HEAP_FILL) + " bytes, then serve it with TIERED = true, TIERED_LOAD = true, "
+						+ "TIERED_HOT_EDGES = " + hotEdges;
+			}
+		}
+
+		final List<String> lines = new ArrayList<String>();
+		lines.add("Corpus : " + theFileName + ", " + file.length() + " bytes");
+		lines.add("Sample : " + sampleBytes + " bytes, " + (long) sampleTokens + " tokens, " + footprint);
+		lines.add("Exponents : words " + wordExponent + ", edges " + edgeExponent + ", graph bytes " + bytesExponent
+				+ ", training time " + timeExponent);
+		lines.add("Projected : " + (long) fullTokens + " tokens, " + (long) fullWords + " words, " + (long) fullEdges
+				+ " edges, " + (long) (fullNanos / 1e6) + " ms training");
+		lines.add("Projected bytes : text " + (long) textBytes + ", graph " + (long) graphBytes + ", frozen "
+				+ (long) frozenBytes + ", approximate " + Bigram.APPROXIMATE_MEMORY_BYTES + ", mapped file "
+				+ (long) mappedBytes);
+		lines.add("Budget : " + (long) budget + " of " + HEAP_BUDGET_BYTES + " bytes");
+		lines.add("Training : " + training);
+		lines.add("Serving : " + serving);
+		return lines;
+	}
+
+	/**
+	 * Finds the largest vocabulary whose graph fits within a budget.
+	 *
+	 * @param theBudget
+	 *            - bytes the graph may use.
+	 * @param theWords
+	 *            - projected number of words.
+	 * @param theGraphBytes
+	 *            - projected bytes of the graph with every word.
+	 * @param theFractions
+	 *            - fractions of the words measured, from 1 down.
+	 * @param theShares
+	 *            - share of the bytes kept at each fraction.
+	 * @return the largest vocabulary that fits, 0 if none does.
+	 */
+	private static long largestVocabulary(final double theBudget, final double theWords, final double theGraphBytes,
+			final double[] theFractions, final double[] theShares) {
+		long low = 0;
+		long high = (long) theWords;
+		while (low < high) {
+			final long middle = (low + high + 1) >>> 1;
+			if (theGraphBytes * share(theFractions, theShares, middle / theWords) <= theBudget) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Interpolates a measured share on a log scale between the two nearest
+	 * fractions, going on along the last two below the smallest one.
+	 *
+	 * @param theFractions
+	 *            - fractions of the words measured, from 1 down.
+	 * @param theShares
+	 *            - share kept at each fraction.
+	 * @param theFraction
+	 *            - fraction of the words kept.
+	 * @return the share kept at theFraction.
+	 */
+	private static double share(final double[] theFractions, final double[] theShares, final double theFraction) {
+		if (theFraction >= 1.0) {
+			return 1.0;
+		}
+		if (theFraction <= 0.0) {
+			return 0.0;
+		}
+		int i = 1;
+		while (i < theFractions.length - 1 && theFractions[i] > theFraction) {
+			i += 1;
+		}
+		final double slope = Math.log(theShares[i - 1] / theShares[i])
+				/ Math.log(theFractions[i - 1] / theFractions[i]);
+		return Math.min(1.0, theShares[i] * Math.pow(theFraction / theFractions[i], slope));
+	}
+
+	/**
+	 * Fits y = a * x^b by least squares on the logs.
+	 *
+	 * @param theX
+	 *            - positive x values.
+	 * @param theY
+	 *            - positive y values.
+	 * @return the exponent b.
+	 */
+	static double fitExponent(final double[] theX, final double[] theY) {
+		double sumX = 0.0;
+		double sumY = 0.0;
+		double sumXX = 0.0;
+		double sumXY = 0.0;
+		for (int i = 0; i < theX.length; i++) {
+			final double x = Math.log(theX[i]);
+			final double y = Math.log(Math.max(1.0, theY[i]));
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+		}
+		final double n = theX.length;
+		final double denominator = n * sumXX - sumX * sumX;
+		return denominator == 0.0 ? 1.0 : (n * sumXY - sumX * sumY) / denominator;
+	}
+
+	/**
+	 * Trains Bigram's graph on a text, starting from an empty graph.
+	 *
+	 * @param theText
+	 *            - the text trained on.
+	 * @return the nanoseconds taken.
+	 */
+	private static long train(final String theText) {
+		Bigram.reset();
+		final long time = System.nanoTime();
+		Bigram.buildGraph(theText);
+		return System.nanoTime() - time;
+	}
+
+	/**
+	 * Prunes Bigram's graph to a vocabulary with Bigram's own pruning.
+	 *
+	 * @param theVocabulary
+	 *            - number of words kept.
+	 * @return the footprint of the pruned graph.
+	 */
+	private static Footprint prune(final int theVocabulary) {
+		// Nodes that are kept keep the arrays their lists grew to.
+		final Map<String, Integer> peakChildren = new HashMap<String, Integer>();
+		for (final Bigram.Node node : Bigram.getGraph().values()) {
+			peakChildren.put(node.getMyStringName(), node.getTotalChildren());
+		}
+		final int minCount = Bigram.MIN_COUNT;
+		final int maxVocabulary = Bigram.MAX_VOCABULARY;
+		Bigram.MIN_COUNT = 0;
+		Bigram.MAX_VOCABULARY = theVocabulary;
+		try {
+			Bigram.pruneVocabulary();
+		} finally {
+			Bigram.MIN_COUNT = minCount;
+			Bigram.MAX_VOCABULARY = maxVocabulary;
+		}
+		return measure(Bigram.getGraph(), peakChildren);
+	}
+
+	/**
+	 * @param theText
+	 *            - a text.
+	 * @param theIndex
+	 *            - where it should be cut.
+	 * @return the index of the last whitespace at or before theIndex, so no
+	 *         word is cut in two, or theIndex if there is none.
+	 */
+	private static int cut(final String theText, final int theIndex) {
+		if (theIndex >= theText.length()) {
+			return theText.length();
+		}
+		for (int i = theIndex; i > 0; i--) {
+			if (Character.isWhitespace(theText.charAt(i))) {
+				return i;
+			}
+		}
+		return theIndex;
+	}
+
+	/**
+	 * Reads the start of a file, cut at the last whitespace if the file is
+	 * longer. The chars are kept as they are, so a whole file read back is as
+	 * long as the file.
+	 *
+	 * @param theFile
+	 *            - the file being read.
+	 * @param theChars
+	 *            - the most chars read.
+	 * @return the chars read.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	private static String readPrefix(final File theFile, final int theChars) throws IOException {
+		final char[] buffer = new char[(int) Math.min(theChars, theFile.length())];
+		int length = 0;
+		try (Reader in = new InputStreamReader(new FileInputStream(theFile), StandardCharsets.UTF_8)) {
+			int read;
+			while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0) {
+				length += read;
+			}
+			final boolean isWhole = in.read() < 0;
+			final String text = new String(buffer, 0, length);
+			return isWhole ? text : text.substring(0, cut(text, length - 1));
+		}
+	}
+
+	/**
+	 * Plans a run over a corpus. With "check" it then trains the whole
+	 * corpus twice and prints the measured footprint, the growth of the used
+	 * heap and the training time of the second run, to compare with the
+	 * projection.
+	 *
+	 * @param args
+	 *            - optional corpus, defaults to Bigram.FILE_NAME_ONE, and
+	 *            "check".
+	 * @throws IOException
+	 *             if the corpus can not be read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final String fileName = args.length > 0 ? args[0] : Bigram.FILE_NAME_ONE;
+		for (final String line : plan(fileName)) {
+			System.out.println(line);
+		}
+		if (args.length > 1 && "check".equals(args[1])) {
+			final Bigram.Models models = Bigram.saveModels();
+			try {
+				final String text = readPrefix(new File(fileName), Integer.MAX_VALUE - 8);
+				train(text);
+				Bigram.reset();
+				final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+				System.gc();
+				final long before = memory.getHeapMemoryUsage().getUsed();
+				final long nanos = train(text);
+				System.gc();
+				final long after = memory.getHeapMemoryUsage().getUsed();
+				System.out.println("Actual : " + new Tokenizer().countTokens(text) + " tokens, "
+						+ measure(Bigram.getGraph()) + ", heap growth " + (after - before) + " bytes, "
+						+ nanos / 1000000 + " ms training");
+			} finally {
+				Bigram.restoreModels(models);
+			}
+		}
+	}
+
+	/**
+	 * The bytes used by each part of a graph.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	public static class Footprint {
+
+		private final int myWords;
+		private final long myEdges;
+		private final long myVocabularyBytes;
+		private final long myNodeBytes;
+		private final long myListBytes;
+		private final long myCountBytes;
+
+		/**
+		 * Footprint constructor.
+		 *
+		 * @param theWords
+		 *            - number of words.
+		 * @param theEdges
+		 *            - number of edges.
+		 * @param theVocabularyBytes
+		 *            - bytes of the hashmap and the word Strings.
+		 * @param theNodeBytes
+		 *            - bytes of the Node objects.
+		 * @param theListBytes
+		 *            - bytes of the successor and count lists.
+		 * @param theCountBytes
+		 *            - bytes of the boxed counts.
+		 */
+		Footprint(final int theWords, final long theEdges, final long theVocabularyBytes, final long theNodeBytes,
+				final long theListBytes, final long theCountBytes) {
+			myWords = theWords;
+			myEdges = theEdges;
+			myVocabularyBytes = theVocabularyBytes;
+			myNodeBytes = theNodeBytes;
+			myListBytes = theListBytes;
+			myCountBytes = theCountBytes;
+		}
+
+		/**
+		 * @return the number of bytes used by the whole graph.
+		 */
+		public long getTotalBytes() {
+			return myVocabularyBytes + myNodeBytes + myListBytes + myCountBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "words : " + myWords + ", edges : " + myEdges + ", vocabulary : " + myVocabularyBytes
+					+ ", nodes : " + myNodeBytes + ", lists : " + myListBytes + ", boxed counts : " + myCountBytes
+					+ ", total : " + getTotalBytes() + " bytes";
+		}
+	}
+}
@@ -0,0 +1,403 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Trains the unigram and the bigram from many files at once. Inputs can be
+ * files, directories (read recursively) or glob patterns such as
+ * "corpus/*.txt.gz". Files ending in ".gz" are decompressed as they are read.
+ *
+ * A fixed number of workers take files from a shared queue. Each worker
+ * counts words and word pairs in its own hashmaps, so they rarely wait on
+ * each other, and the counts of all workers are merged into Unigram and
+ * Bigram at the end. Each file is its own stream of words, going from the
+ * start symbol to the end symbol. When Bigram.SENTENCES is true each line
+ * that is not blank goes from the start symbol to the end symbol instead,
+ * as in Bigram.
+ *
+ * Every worker's hashmaps can grow as large as a model of the files it read,
+ * so up to THREADS of them are held next to the node graph. A worker merges
+ * its counts early and starts again empty once it holds FLUSH_PAIRS distinct
+ * pairs, which bounds that memory to about THREADS * FLUSH_PAIRS pairs.
+ *
+ * Bigram.APPROXIMATE is not supported, as the counts are merged into the node
+ * graph.
+ *
+ * Progress and throughput are printed every few seconds while it runs.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class CorpusIngester {
+
+	/**
+	 * Number of files read at the same time.
+	 */
+	public static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Distinct pairs a worker holds before merging its counts early, 0 to
+	 * merge only at the end.
+	 */
+	public static int FLUSH_PAIRS = 1 << 20;
+
+	/**
+	 * Held while a worker merges its counts, as Unigram and Bigram are not
+	 * thread safe.
+	 */
+	private static final Object MERGE_LOCK = new Object();
+
+	/**
+	 * Seconds between progress reports, 0 turns them off.
+	 */
+	public static long PROGRESS_SECONDS = 5;
+
+	/**
+	 * Progress counters shared by every worker.
+	 */
+	private final AtomicInteger myFilesDone = new AtomicInteger();
+	private final AtomicLong myBytesDone = new AtomicLong();
+	private final AtomicLong myTokens = new AtomicLong();
+
+	/**
+	 * Trains both models from the given inputs, then writes their
+	 * probabilities and evaluates them as their own main methods do.
+	 *
+	 * @param args
+	 *            - files, directories or glob patterns to read.
+	 * @throws IOException
+	 *             if an input can not be listed or read.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers.
+	 * @throws IllegalArgumentException
+	 *             if Bigram.APPROXIMATE is set.
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		if (Bigram.APPROXIMATE) {
+			throw new IllegalArgumentException("CorpusIngester counts exact pairs, Bigram.APPROXIMATE must be false");
+		}
+		final List<Path> files = expand(args.length > 0 ? args : new String[] { Bigram.FILE_NAME_ONE });
+		Unigram.reset();
+		Bigram.reset();
+
+		Metrics.install();
+		new CorpusIngester().ingest(files);
+		Unigram.finishTraining();
+		Bigram.finishTraining();
+		Unigram.startEvaluation();
+		Bigram.startEvaluation();
+		Metrics.finish();
+	}
+
+	/**
+	 * Turns files, directories and glob patterns into a sorted list of files.
+	 *
+	 * @param theInputs
+	 *            - files, directories or glob patterns.
+	 * @return every file found.
+	 * @throws IOException
+	 *             if a directory can not be listed.
+	 */
+	public static List<Path> expand(final String[] theInputs) throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		for (final String input : theInputs) {
+			final int glob = indexOfGlob(input);
+			if (glob < 0) {
+				final Path path = Paths.get(input);
+				if (Files.isDirectory(path)) {
+					addFiles(path, null, files);
+				} else {
+					files.add(path);
+				}
+			} else {
+				// Walk from the last directory before the first glob character.
+				final int slash = input.lastIndexOf(File.separatorChar, glob);
+				final Path root = Paths.get(slash < 0 ? "." : input.substring(0, slash + 1));
+				final PathMatcher matcher = FileSystems.getDefault()
+						.getPathMatcher("glob:" + (slash < 0 ? input : input.substring(slash + 1)));
+				addFiles(root, new PathMatcherWithRoot(root, matcher), files);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Counts every file, THREADS at a time, and merges the counts into
+	 * Unigram and Bigram.
+	 *
+	 * @param theFiles
+	 *            - files being read.
+	 * @throws IOException
+	 *             if a file can not be read.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers.
+	 */
+	public void ingest(final List<Path> theFiles) throws IOException, InterruptedException {
+		final long start = System.nanoTime();
+		final ConcurrentLinkedQueue<Path> queue = new ConcurrentLinkedQueue<Path>(theFiles);
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, THREADS));
+		final List<Future<Worker>> futures = new ArrayList<Future<Worker>>();
+		for (int i = 0; i < Math.max(1, THREADS); i++) {
+			futures.add(pool.submit(new Worker(queue)));
+		}
+		pool.shutdown();
+
+		// Report progress until every worker is done.
+		while (!pool.awaitTermination(PROGRESS_SECONDS > 0 ? PROGRESS_SECONDS : 1, TimeUnit.SECONDS)) {
+			if (PROGRESS_SECONDS > 0) {
+				printProgress(theFiles.size(), start);
+			}
+		}
+
+		final long time = Metrics.start();
+		try {
+			for (final Future<Worker> future : futures) {
+				future.get().mergeInto();
+			}
+		} catch (final ExecutionException e) {
+			throw new IOException("Worker failed", e.getCause());
+		}
+		Metrics.stop("ingest.merge", time);
+		printProgress(theFiles.size(), start);
+	}
+
+	/**
+	 * Prints the files, bytes and words read so far and the rate words are
+	 * read at.
+	 *
+	 * @param theTotalFiles
+	 *            - number of files being read.
+	 * @param theStart
+	 *            - time the ingestion started at, in nanoseconds.
+	 */
+	private void printProgress(final int theTotalFiles, final long theStart) {
+		final double seconds = (System.nanoTime() - theStart) / 1e9;
+		System.out.println(String.format("Files : %d/%d, read : %.1f MB, words : %d, %.0f words/s",
+				myFilesDone.get(), theTotalFiles, myBytesDone.get() / 1e6, myTokens.get(),
+				myTokens.get() / Math.max(seconds, 1e-9)));
+		Metrics.gauge("ingest.wordsPerSecond", myTokens.get() / Math.max(seconds, 1e-9));
+	}
+
+	/**
+	 * Opens a file, decompressing it if its name ends in ".gz".
+	 *
+	 * @param theFile
+	 *            - the file being opened.
+	 * @return a reader of the file's text.
+	 * @throws IOException
+	 *             if the file can not be opened.
+	 */
+	static BufferedReader open(final Path theFile) throws IOException {
+		InputStream in = new FileInputStream(theFile.toFile());
+		if (theFile.getFileName().toString().endsWith(".gz")) {
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	/**
+	 * @param theInput
+	 *            - a file name or pattern.
+	 * @return the index of the first glob character, or -1 if there is none.
+	 */
+	private static int indexOfGlob(final String theInput) {
+		for (int i = 0; i < theInput.length(); i++) {
+			final char c = theInput.charAt(i);
+			if (c == '*' || c == '?' || c == '[' || c == '{') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds every regular file under a directory that the matcher accepts.
+	 *
+	 * @param theRoot
+	 *            - directory being walked.
+	 * @param theMatcher
+	 *            - accepts files, or null to accept every file.
+	 * @param theFiles
+	 *            - list the files are added to.
+	 * @throws IOException
+	 *             if the directory can not be listed.
+	 */
+	private static void addFiles(final Path theRoot, final PathMatcher theMatcher, final List<Path> theFiles)
+			throws IOException {
+		try (Stream<Path> paths = Files.walk(theRoot)) {
+			final Iterator<Path> iterator = paths.iterator();
+			while (iterator.hasNext()) {
+				final Path path = iterator.next();
+				if (Files.isRegularFile(path) && (theMatcher == null || theMatcher.matches(path))) {
+					theFiles.add(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Matches a glob against paths relative to the directory being walked.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class PathMatcherWithRoot implements PathMatcher {
+
+		private final Path myRoot;
+		private final PathMatcher myMatcher;
+
+		/**
+		 * PathMatcherWithRoot constructor.
+		 *
+		 * @param theRoot
+		 *            - directory being walked.
+		 * @param theMatcher
+		 *            - glob matcher for relative paths.
+		 */
+		PathMatcherWithRoot(final Path theRoot, final PathMatcher theMatcher) {
+			myRoot = theRoot;
+			myMatcher = theMatcher;
+		}
+
+		@Override
+		public boolean matches(final Path thePath) {
+			return myMatcher.matches(myRoot.relativize(thePath));
+		}
+	}
+
+	/**
+	 * Takes files from the queue until it is empty, counting words and word
+	 * pairs in its own hashmaps.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private class Worker implements Callable<Worker> {
+
+		/**
+		 * Files left to read.
+		 */
+		private final ConcurrentLinkedQueue<Path> myQueue;
+
+		/**
+		 * Hashmap<theWord, theCount> and the pair counts of this worker.
+		 */
+		private final HashMap<String, int[]> myWords = new HashMap<String, int[]>();
+		private final PairCounts myPairs = new PairCounts();
+
+		/**
+		 * Tokenizer used only by this worker.
+		 */
+		private final Tokenizer myTokenizer = new Tokenizer();
+
+		/**
+		 * Worker constructor.
+		 *
+		 * @param theQueue
+		 *            - files left to read.
+		 */
+		Worker(final ConcurrentLinkedQueue<Path> theQueue) {
+			myQueue = theQueue;
+		}
+
+		@Override
+		public Worker call() throws IOException {
+			Path file = myQueue.poll();
+			while (file != null) {
+				final long time = Metrics.start();
+				final long words = count(file);
+				Metrics.stop("ingest.file", time, words);
+				myFilesDone.incrementAndGet();
+				myBytesDone.addAndGet(Files.size(file));
+				file = myQueue.poll();
+			}
+			return this;
+		}
+
+		/**
+		 * Counts the words and word pairs of one file.
+		 *
+		 * @param theFile
+		 *            - the file being read.
+		 * @return the number of words in the file.
+		 * @throws IOException
+		 *             if the file can not be read.
+		 */
+		private long count(final Path theFile) throws IOException {
+			long words = 0;
+			String prevWord = Bigram.START_SYMBOL;
+			try (BufferedReader reader = open(theFile)) {
+				String line = reader.readLine();
+				while (line != null) {
+					long lineWords = 0;
+					myTokenizer.reset(line);
+					while (myTokenizer.next()) {
+						final String word = myTokenizer.getToken();
+						PairCounts.add(myWords, word);
+						myPairs.add(prevWord, word);
+						prevWord = word;
+						lineWords += 1;
+					}
+					// Blank lines are not sentences.
+					if (Bigram.SENTENCES && lineWords > 0) {
+						myPairs.add(prevWord, Bigram.END_SYMBOL);
+						prevWord = Bigram.START_SYMBOL;
+					}
+					words += lineWords;
+					myTokens.addAndGet(lineWords);
+					if (FLUSH_PAIRS > 0 && myPairs.size() >= FLUSH_PAIRS) {
+						mergeInto();
+						Metrics.increment("ingest.flush", 1);
+					}
+					line = reader.readLine();
+				}
+			}
+			if (!Bigram.SENTENCES && words > 0) {
+				myPairs.add(prevWord, Bigram.END_SYMBOL);
+			}
+			return words;
+		}
+
+		/**
+		 * Adds the counts of this worker to Unigram and Bigram, then empties
+		 * this worker's hashmaps.
+		 */
+		void mergeInto() {
+			synchronized (MERGE_LOCK) {
+				for (final Map.Entry<String, int[]> entry : myWords.entrySet()) {
+					Unigram.addCount(entry.getKey(), entry.getValue()[0]);
+				}
+				myPairs.mergeInto();
+			}
+			myWords.clear();
+		}
+	}
+}
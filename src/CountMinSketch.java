@@ -0,0 +1,181 @@
+/**
+ * A count-min sketch that counts long keys in a fixed amount of memory. It
+ * keeps depth rows of width counters, each row using its own hash of the key.
+ * A count is read as the smallest counter the key maps to.
+ *
+ * Counts are added with conservative update: only the counters that are
+ * below the new estimate are raised, which keeps the over count much lower
+ * than the plain sketch.
+ *
+ * Error bounds: with width w and depth d, an estimate is never below the true
+ * count, and is above it by more than (e / w) * N with probability at most
+ * e^-d, where N is the total of all counts added.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class CountMinSketch {
+
+	/**
+	 * Seeds used to give every row its own hash function.
+	 */
+	private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+			0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL,
+			0xBF58476D1CE4E5B9L };
+
+	/**
+	 * Number of rows and number of counters per row.
+	 */
+	private final int myDepth;
+	private final int myWidth;
+
+	/**
+	 * All rows stored one after another.
+	 */
+	private final int[] myCounters;
+
+	/**
+	 * Total of all counts added.
+	 */
+	private long myTotal;
+
+	/**
+	 * CountMinSketch constructor.
+	 *
+	 * @param theWidth
+	 *            - number of counters in each row.
+	 * @param theDepth
+	 *            - number of rows, at most 8.
+	 */
+	public CountMinSketch(final int theWidth, final int theDepth) {
+		if (theWidth <= 0 || theDepth <= 0 || theDepth > SEEDS.length) {
+			throw new IllegalArgumentException("Invalid sketch size: " + theWidth + " x " + theDepth);
+		}
+		myWidth = theWidth;
+		myDepth = theDepth;
+		myCounters = new int[theWidth * theDepth];
+	}
+
+	/**
+	 * Creates a sketch that uses about theBytes of memory.
+	 *
+	 * @param theBytes
+	 *            - memory given to the counters.
+	 * @param theDepth
+	 *            - number of rows, at most 8.
+	 * @return the new sketch.
+	 */
+	public static CountMinSketch withMemory(final long theBytes, final int theDepth) {
+		return new CountMinSketch((int) Math.max(1, Math.min(Integer.MAX_VALUE / theDepth, theBytes / 4 / theDepth)),
+				theDepth);
+	}
+
+	/**
+	 * Adds to the count of a key using conservative update.
+	 *
+	 * @param theKey
+	 *            - the key being counted.
+	 * @param theCount
+	 *            - amount added to the count.
+	 */
+	public void add(final long theKey, final int theCount) {
+		final int estimate = estimate(theKey) + theCount;
+		for (int row = 0; row < myDepth; row++) {
+			final int index = index(theKey, row);
+			if (myCounters[index] < estimate) {
+				myCounters[index] = estimate;
+			}
+		}
+		myTotal += theCount;
+	}
+
+	/**
+	 * Estimates the count of a key. The estimate is never below the true
+	 * count.
+	 *
+	 * @param theKey
+	 *            - the key being looked up.
+	 * @return the smallest counter the key maps to.
+	 */
+	public int estimate(final long theKey) {
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < myDepth; row++) {
+			min = Math.min(min, myCounters[index(theKey, row)]);
+		}
+		return min;
+	}
+
+	/**
+	 * @return the largest amount an estimate is expected to be over by,
+	 *         (e / width) * total.
+	 */
+	public double getErrorBound() {
+		return Math.E / myWidth * myTotal;
+	}
+
+	/**
+	 * @return the chance an estimate is over by more than getErrorBound(),
+	 *         e^-depth.
+	 */
+	public double getFailureProbability() {
+		return Math.exp(-myDepth);
+	}
+
+	/**
+	 * @return the total of all counts added.
+	 */
+	public long getTotal() {
+		return myTotal;
+	}
+
+	/**
+	 * @return the number of bytes used by the counters.
+	 */
+	public long getMemoryBytes() {
+		return 4L * myCounters.length;
+	}
+
+	/**
+	 * Finds the counter a key maps to in a row.
+	 *
+	 * @param theKey
+	 *            - the key being looked up.
+	 * @param theRow
+	 *            - the row being looked up.
+	 * @return the index of the counter in myCounters.
+	 */
+	private int index(final long theKey, final int theRow) {
+		long hash = theKey ^ SEEDS[theRow];
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return theRow * myWidth + (int) ((hash >>> 1) % myWidth);
+	}
+
+	/**
+	 * Builds a key for a pair of words. The 64 bit hash of each word is used
+	 * rather than String.hashCode(), whose 32 bits are easy to make collide
+	 * ("Aa" and "BB"), and a collision of keys is a collision in every row.
+	 *
+	 * @param theFirst
+	 *            - first word of the pair.
+	 * @param theSecond
+	 *            - second word of the pair.
+	 * @return a key made from the hashes of both words, in order.
+	 */
+	public static long pairKey(final String theFirst, final String theSecond) {
+		return PerfectHashVocabulary.hash(theFirst) * 0x9E3779B97F4A7C15L + PerfectHashVocabulary.hash(theSecond);
+	}
+
+	/**
+	 * Builds a key for a single word.
+	 *
+	 * @param theWord
+	 *            - the word.
+	 * @return the 64 bit hash of the word.
+	 */
+	public static long wordKey(final String theWord) {
+		return PerfectHashVocabulary.hash(theWord);
+	}
+}
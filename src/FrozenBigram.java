@@ -0,0 +1,443 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read only copy of the bigram graph made once training is done. Each word
+ * gets an id, and the children of every word are stored together in sorted
+ * arrays, so a probability is found with a binary search instead of a scan
+ * through a list of boxed values.
+ *
+ * Log probabilities are either stored exactly as doubles, or quantized to 8
+ * or 16 bit codes. Quantized codes index a codebook built for the model by
+ * splitting its distinct log probabilities into equally sized groups and
+ * keeping the mean of each group.
+ *
+ * Word ids come from a PerfectHashVocabulary built when the model is frozen,
+ * and the whole model can be written to a file and read back.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class FrozenBigram implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The words of the model, indexed by id, and the perfect hash giving
+	 * their ids. The perfect hash only rejects unseen words by a 16 bit
+	 * fingerprint, so every id it gives is checked against myWords.
+	 */
+	private final String[] myWords;
+	private final PerfectHashVocabulary myVocabulary;
+
+	/**
+	 * The children of word i are stored from myRowStart[i] up to
+	 * myRowStart[i + 1], sorted by id.
+	 */
+	private final int[] myRowStart;
+	private final int[] myChildren;
+
+	/**
+	 * Number of bits per log probability, 0 when stored exactly.
+	 */
+	private final int myBits;
+
+	/**
+	 * Exact log probabilities, or quantized codes and their codebook. Only
+	 * the arrays used by myBits are set.
+	 */
+	private final double[] myLogProbs;
+	private final byte[] myByteCodes;
+	private final short[] myShortCodes;
+	private final double[] myCodebook;
+
+	/**
+	 * Freezes a bigram graph.
+	 *
+	 * @param theGraph
+	 *            - hashmap<theStringName, theNode> built during training.
+	 * @param theBits
+	 *            - 0 to store exact log probabilities, or 8 or 16 to store
+	 *            quantized codes.
+	 */
+	public FrozenBigram(final Map<String, Bigram.Node> theGraph, final int theBits) {
+		if (theBits != 0 && theBits != 8 && theBits != 16) {
+			throw new IllegalArgumentException("Quantization must be 0, 8 or 16 bits: " + theBits);
+		}
+		myBits = theBits;
+		myVocabulary = new PerfectHashVocabulary(theGraph.keySet());
+		myWords = new String[theGraph.size()];
+		for (final String word : theGraph.keySet()) {
+			myWords[myVocabulary.getId(word)] = word;
+		}
+
+		// Lay out the children of every word, sorted by id, straight from the
+		// counts of each node.
+		myRowStart = new int[myWords.length + 1];
+		int edges = 0;
+		for (int i = 0; i < myWords.length; i++) {
+			myRowStart[i] = edges;
+			edges += theGraph.get(myWords[i]).getTotalChildren();
+		}
+		myRowStart[myWords.length] = edges;
+		myChildren = new int[edges];
+		final double[] logProbs = new double[edges];
+		for (int i = 0; i < myWords.length; i++) {
+			final Bigram.Node node = theGraph.get(myWords[i]);
+			final double total = node.getTotalOccurrences();
+			final long[] keys = new long[node.getTotalChildren()];
+			for (int child = 0; child < keys.length; child++) {
+				keys[child] = ((long) myVocabulary.getId(node.getChildName(child)) << 32) | child;
+			}
+			Arrays.sort(keys);
+			int index = myRowStart[i];
+			for (final long key : keys) {
+				myChildren[index] = (int) (key >>> 32);
+				logProbs[index] = Math.log(node.getChildCount((int) key) / total);
+				index += 1;
+			}
+		}
+
+		if (theBits == 0) {
+			myLogProbs = logProbs;
+			myCodebook = null;
+			myByteCodes = null;
+			myShortCodes = null;
+		} else {
+			myLogProbs = null;
+			myCodebook = buildCodebook(logProbs, 1 << theBits);
+			final int[] codes = encode(logProbs, myCodebook);
+			if (theBits == 8) {
+				myByteCodes = new byte[codes.length];
+				myShortCodes = null;
+				for (int i = 0; i < codes.length; i++) {
+					myByteCodes[i] = (byte) codes[i];
+				}
+			} else {
+				myShortCodes = new short[codes.length];
+				myByteCodes = null;
+				for (int i = 0; i < codes.length; i++) {
+					myShortCodes[i] = (short) codes[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds a codebook by sorting the values, splitting them into groups of
+	 * equal size and keeping the mean of each group.
+	 *
+	 * @param theValues
+	 *            - every log probability in the model.
+	 * @param theSize
+	 *            - the largest number of entries in the codebook.
+	 * @return the codebook, sorted from lowest to highest.
+	 */
+	private static double[] buildCodebook(final double[] theValues, final int theSize) {
+		final double[] sorted = theValues.clone();
+		Arrays.sort(sorted);
+		// Distinct values only, so no two entries are the same.
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		if (distinct <= theSize) {
+			return Arrays.copyOf(sorted, distinct);
+		}
+		final double[] codebook = new double[theSize];
+		for (int code = 0; code < theSize; code++) {
+			final int from = (int) ((long) distinct * code / theSize);
+			final int to = (int) ((long) distinct * (code + 1) / theSize);
+			double sum = 0.0;
+			for (int i = from; i < to; i++) {
+				sum += sorted[i];
+			}
+			codebook[code] = sum / (to - from);
+		}
+		return codebook;
+	}
+
+	/**
+	 * Replaces each value with the index of the nearest codebook entry.
+	 *
+	 * @param theValues
+	 *            - log probabilities being encoded.
+	 * @param theCodebook
+	 *            - sorted codebook.
+	 * @return the code of each value.
+	 */
+	private static int[] encode(final double[] theValues, final double[] theCodebook) {
+		final int[] codes = new int[theValues.length];
+		for (int i = 0; i < theValues.length; i++) {
+			int index = Arrays.binarySearch(theCodebook, theValues[i]);
+			if (index < 0) {
+				final int above = -index - 1;
+				if (above == 0) {
+					index = 0;
+				} else if (above == theCodebook.length) {
+					index = theCodebook.length - 1;
+				} else {
+					index = theValues[i] - theCodebook[above - 1] <= theCodebook[above] - theValues[i] ? above - 1
+							: above;
+				}
+			}
+			codes[i] = index;
+		}
+		return codes;
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the id of the word, or -1 if it is not in the model.
+	 */
+	public int getId(final String theWord) {
+		final int id = myVocabulary.getId(theWord);
+		return id >= 0 && myWords[id].equals(theWord) ? id : -1;
+	}
+
+	/**
+	 * Looks up a word held in part of a char array, without making a String.
+	 *
+	 * @param theChars
+	 *            - array holding the word.
+	 * @param theStart
+	 *            - index of the first char of the word.
+	 * @param theEnd
+	 *            - index after the last char of the word.
+	 * @return the id of the word, or -1 if it is not in the model.
+	 */
+	public int getId(final char[] theChars, final int theStart, final int theEnd) {
+		final int id = myVocabulary.getId(theChars, theStart, theEnd);
+		if (id < 0 || myWords[id].length() != theEnd - theStart) {
+			return -1;
+		}
+		for (int i = theStart; i < theEnd; i++) {
+			if (myWords[id].charAt(i - theStart) != theChars[i]) {
+				return -1;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @return the perfect hash giving the ids of the words.
+	 */
+	public PerfectHashVocabulary getVocabulary() {
+		return myVocabulary;
+	}
+
+	/**
+	 * @param theId
+	 *            - id of a word.
+	 * @return the word with that id.
+	 */
+	public String getWord(final int theId) {
+		return myWords[theId];
+	}
+
+	/**
+	 * @return the number of words in the model.
+	 */
+	public int getVocabularySize() {
+		return myWords.length;
+	}
+
+	/**
+	 * Gets the log probability of a word following a context word.
+	 *
+	 * @param theContextId
+	 *            - id of the previous word.
+	 * @param theWordId
+	 *            - id of the word following it.
+	 * @return the natural log of the probability, negative infinity if the
+	 *         pair was never seen.
+	 */
+	public double getLogProbability(final int theContextId, final int theWordId) {
+		if (theContextId < 0 || theWordId < 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		final int index = Arrays.binarySearch(myChildren, myRowStart[theContextId], myRowStart[theContextId + 1],
+				theWordId);
+		if (index < 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return getLogProbabilityAt(index);
+	}
+
+	/**
+	 * Gets the log probability of a word following a context word.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 * @return the natural log of the probability, negative infinity if the
+	 *         pair was never seen.
+	 */
+	public double getLogProbability(final String theContext, final String theWord) {
+		return getLogProbability(getId(theContext), getId(theWord));
+	}
+
+	/**
+	 * Calculates the perplexity of the seen word pairs in a list of lines.
+	 * Each line starts from the start symbol and pairs that were never seen
+	 * are left out, so exact and quantized models can be compared.
+	 *
+	 * @param theLines
+	 *            - lines being evaluated.
+	 * @return exp(-average log probability) over the seen pairs.
+	 */
+	public double perplexity(final List<String> theLines) {
+		final Tokenizer tokenizer = new Tokenizer();
+		double sum = 0.0;
+		long count = 0;
+		for (final String line : theLines) {
+			int prevId = getId(Bigram.START_SYMBOL);
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				final int wordId = getId(tokenizer.getToken());
+				final double logProb = getLogProbability(prevId, wordId);
+				if (logProb != Double.NEGATIVE_INFINITY) {
+					sum += logProb;
+					count += 1;
+				}
+				prevId = wordId;
+			}
+		}
+		return count == 0 ? Double.NaN : Math.exp(-sum / count);
+	}
+
+	/**
+	 * @param theId
+	 *            - id of a word, or the vocabulary size for the end of the
+	 *            last row.
+	 * @return the index of the first child of the word.
+	 */
+	int getRowStart(final int theId) {
+		return myRowStart[theId];
+	}
+
+	/**
+	 * @param theIndex
+	 *            - index of a child, from getRowStart().
+	 * @return the id of the child.
+	 */
+	int getChild(final int theIndex) {
+		return myChildren[theIndex];
+	}
+
+	/**
+	 * @param theIndex
+	 *            - index of a child, from getRowStart().
+	 * @return the log probability of the child following its word.
+	 */
+	double getLogProbabilityAt(final int theIndex) {
+		if (myBits == 0) {
+			return myLogProbs[theIndex];
+		} else if (myBits == 8) {
+			return myCodebook[myByteCodes[theIndex] & 0xFF];
+		}
+		return myCodebook[myShortCodes[theIndex] & 0xFFFF];
+	}
+
+	/**
+	 * @param theIndex
+	 *            - index of a child, from getRowStart().
+	 * @return the quantized code of the child's log probability. Only used
+	 *         when getBits() is not 0.
+	 */
+	int getCodeAt(final int theIndex) {
+		if (myBits == 8) {
+			return myByteCodes[theIndex] & 0xFF;
+		}
+		return myShortCodes[theIndex] & 0xFFFF;
+	}
+
+	/**
+	 * @return a copy of the codebook indexed by the quantized codes, or null
+	 *         when the log probabilities are exact.
+	 */
+	double[] getCodebook() {
+		return myCodebook == null ? null : Arrays.copyOf(myCodebook, myCodebook.length);
+	}
+
+	/**
+	 * @return the number of word pairs in the model.
+	 */
+	public int getEdgeCount() {
+		return myChildren.length;
+	}
+
+	/**
+	 * @return the number of bits per log probability, 0 when exact.
+	 */
+	public int getBits() {
+		return myBits;
+	}
+
+	/**
+	 * @return the number of bytes used to store the probabilities, including
+	 *         the codebook.
+	 */
+	public long getProbabilityBytes() {
+		if (myBits == 0) {
+			return 8L * myLogProbs.length;
+		}
+		return (long) myChildren.length * myBits / 8 + 8L * myCodebook.length;
+	}
+
+	/**
+	 * @return the number of bytes used by the ids, children and
+	 *         probabilities, not counting the words themselves.
+	 */
+	public long getMemoryBytes() {
+		return myVocabulary.getMemoryBytes() + 4L * myRowStart.length + 4L * myChildren.length
+				+ getProbabilityBytes();
+	}
+
+	/**
+	 * Writes the model to a file.
+	 *
+	 * @param theFile
+	 *            - the file being written.
+	 * @throws IOException
+	 *             if the file can not be written.
+	 */
+	public void write(final File theFile) throws IOException {
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(theFile)))) {
+			out.writeObject(this);
+		}
+	}
+
+	/**
+	 * Reads a model written by write().
+	 *
+	 * @param theFile
+	 *            - the file being read.
+	 * @return the model.
+	 * @throws IOException
+	 *             if the file can not be read or does not hold a model.
+	 */
+	public static FrozenBigram read(final File theFile) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(theFile)))) {
+			return (FrozenBigram) in.readObject();
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("Not a frozen bigram: " + theFile, e);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * A read only copy of the unigram counts made once training is done. Each
+ * word gets an id, and the log probability of every word, its count divided
+ * by the number of tokens counted, is worked out once and kept in a dense
+ * array indexed by id. Ids come from a PerfectHashVocabulary, so scoring a
+ * word is one perfect hash lookup and one array read.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class FrozenUnigram implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The words of the model, indexed by id, and the perfect hash giving
+	 * their ids. The perfect hash only rejects unseen words by a 16 bit
+	 * fingerprint, so every id it gives is checked against myWords.
+	 */
+	private final String[] myWords;
+	private final PerfectHashVocabulary myVocabulary;
+
+	/**
+	 * Natural log probability of each word, indexed by id.
+	 */
+	private final double[] myLogProbs;
+
+	/**
+	 * Number of tokens the counts were taken from.
+	 */
+	private final double myTotal;
+
+	/**
+	 * Freezes a table of unigram counts.
+	 *
+	 * @param theCounts
+	 *            - hashmap<theWord, theNumberOfOccurences> built during
+	 *            training.
+	 * @param theTotal
+	 *            - number of tokens counted.
+	 */
+	public FrozenUnigram(final Map<String, Double> theCounts, final double theTotal) {
+		if (theTotal <= 0 && !theCounts.isEmpty()) {
+			throw new IllegalArgumentException("Token total must be above 0: " + theTotal);
+		}
+		myTotal = theTotal;
+		myVocabulary = new PerfectHashVocabulary(theCounts.keySet());
+		myWords = new String[theCounts.size()];
+		myLogProbs = new double[myWords.length];
+		final double logTotal = Math.log(theTotal);
+		for (final Map.Entry<String, Double> entry : theCounts.entrySet()) {
+			final int id = myVocabulary.getId(entry.getKey());
+			myWords[id] = entry.getKey();
+			myLogProbs[id] = Math.log(entry.getValue()) - logTotal;
+		}
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the id of the word, or -1 if it is not in the model.
+	 */
+	public int getId(final String theWord) {
+		final int id = myVocabulary.getId(theWord);
+		return id >= 0 && myWords[id].equals(theWord) ? id : -1;
+	}
+
+	/**
+	 * @param theId
+	 *            - id of a word.
+	 * @return the word with that id.
+	 */
+	public String getWord(final int theId) {
+		return myWords[theId];
+	}
+
+	/**
+	 * @return the number of words in the model.
+	 */
+	public int getVocabularySize() {
+		return myWords.length;
+	}
+
+	/**
+	 * @return the number of tokens the counts were taken from.
+	 */
+	public double getTotal() {
+		return myTotal;
+	}
+
+	/**
+	 * @param theId
+	 *            - id of a word, or -1.
+	 * @return the natural log of the probability of the word, negative
+	 *         infinity if the id is -1.
+	 */
+	public double getLogProbability(final int theId) {
+		return theId < 0 ? Double.NEGATIVE_INFINITY : myLogProbs[theId];
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the natural log of the probability of the word, negative
+	 *         infinity if it was never seen.
+	 */
+	public double getLogProbability(final String theWord) {
+		return getLogProbability(getId(theWord));
+	}
+
+	/**
+	 * @return the number of bytes used by the ids and log probabilities.
+	 */
+	public long getMemoryBytes() {
+		return myVocabulary.getMemoryBytes() + 8L * myLogProbs.length;
+	}
+}
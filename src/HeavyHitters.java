@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Keeps the most frequent words of a stream in a fixed number of slots using
+ * the Space-Saving algorithm. When every slot is taken, the word with the
+ * lowest count is replaced and the new word starts from that count, which is
+ * remembered as its error.
+ *
+ * A word whose error is 0 has been tracked since it first appeared, so its
+ * count is exact. Any word whose true count is above total / capacity is
+ * always tracked.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class HeavyHitters {
+
+	/**
+	 * Maximum number of words tracked.
+	 */
+	private final int myCapacity;
+
+	/**
+	 * Hashmap that stores the tracked words and their slots.
+	 */
+	private final HashMap<String, Slot> mySlots;
+
+	/**
+	 * Slots ordered by count, lowest first. Ties are ordered by word so every
+	 * slot is distinct.
+	 */
+	private final TreeSet<Slot> myQueue;
+
+	/**
+	 * HeavyHitters constructor.
+	 *
+	 * @param theCapacity
+	 *            - maximum number of words tracked.
+	 */
+	public HeavyHitters(final int theCapacity) {
+		if (theCapacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + theCapacity);
+		}
+		myCapacity = theCapacity;
+		mySlots = new HashMap<String, Slot>();
+		myQueue = new TreeSet<Slot>(new Comparator<Slot>() {
+			@Override
+			public int compare(final Slot theFirst, final Slot theSecond) {
+				final int result = Long.compare(theFirst.myCount, theSecond.myCount);
+				return result != 0 ? result : theFirst.myWord.compareTo(theSecond.myWord);
+			}
+		});
+	}
+
+	/**
+	 * Counts one more occurrence of a word.
+	 *
+	 * @param theWord
+	 *            - the word being counted.
+	 */
+	public void add(final String theWord) {
+		Slot slot = mySlots.get(theWord);
+		if (slot == null) {
+			if (mySlots.size() < myCapacity) {
+				slot = new Slot(theWord, 0, 0);
+			} else {
+				// Replace the word with the lowest count.
+				final Slot lowest = myQueue.pollFirst();
+				mySlots.remove(lowest.myWord);
+				slot = new Slot(theWord, lowest.myCount, lowest.myCount);
+			}
+			mySlots.put(theWord, slot);
+		} else {
+			myQueue.remove(slot);
+		}
+		slot.myCount += 1;
+		myQueue.add(slot);
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return true if the word is tracked and its count is exact.
+	 */
+	public boolean isExact(final String theWord) {
+		final Slot slot = mySlots.get(theWord);
+		return slot != null && slot.myError == 0;
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the count of the word, or -1 if it is not tracked.
+	 */
+	public long getCount(final String theWord) {
+		final Slot slot = mySlots.get(theWord);
+		return slot == null ? -1 : slot.myCount;
+	}
+
+	/**
+	 * @return the number of words tracked.
+	 */
+	public int size() {
+		return mySlots.size();
+	}
+
+	/**
+	 * @return "theWord = theCount (+/- theError)" for every tracked word,
+	 *         highest count first.
+	 */
+	public List<String> describe() {
+		final List<Slot> slots = new ArrayList<Slot>(mySlots.values());
+		Collections.sort(slots, Collections.reverseOrder(myQueue.comparator()));
+		final List<String> lines = new ArrayList<String>();
+		for (final Slot slot : slots) {
+			lines.add("C(" + slot.myWord + ") = " + slot.myCount + " (+/- " + slot.myError + ")");
+		}
+		return lines;
+	}
+
+	/**
+	 * A tracked word, its count and how much of the count may be over.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class Slot {
+
+		private final String myWord;
+		private final long myError;
+		private long myCount;
+
+		/**
+		 * Slot constructor.
+		 *
+		 * @param theWord
+		 *            - the word being tracked.
+		 * @param theCount
+		 *            - count the word starts from.
+		 * @param theError
+		 *            - how much of that count may be over.
+		 */
+		Slot(final String theWord, final long theCount, final long theError) {
+			myWord = theWord;
+			myCount = theCount;
+			myError = theError;
+		}
+	}
+}
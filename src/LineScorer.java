@@ -0,0 +1,200 @@
+/**
+ * Scores lines against a FrozenBigram without making any objects. Lines are
+ * read straight from a CharSequence or a range of a char array, split into
+ * words in place by a reused Tokenizer, and each word is looked up by hashing
+ * the tokenizer's buffer against the model's perfect hash. Log probabilities
+ * are added up in a double, so once the tokenizer's buffer has grown to fit
+ * the longest word, scoring a line allocates nothing.
+ *
+ * Scores are the same perplexities Bigram gives, 1 / pow(joint probability,
+ * 1 / words), worked out as exp(-sum of log probabilities / words). Words
+ * missing from the model are looked up as the unknown symbol.
+ *
+ * A LineScorer is not thread safe, each thread should use its own.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class LineScorer {
+
+	/**
+	 * The model being scored against.
+	 */
+	private final FrozenBigram myModel;
+
+	/**
+	 * When true every line also ends with the end symbol, as with
+	 * Bigram.SENTENCES.
+	 */
+	private final boolean mySentences;
+
+	/**
+	 * Ids of the start, end and unknown symbols, -1 if not in the model.
+	 */
+	private final int myStartId;
+	private final int myEndId;
+	private final int myUnknownId;
+
+	/**
+	 * Chars that end a line in scoreLines().
+	 */
+	private final char[] myLineSeparator;
+
+	/**
+	 * Splits each line into words.
+	 */
+	private final Tokenizer myTokenizer = new Tokenizer();
+
+	/**
+	 * LineScorer constructor.
+	 *
+	 * @param theModel
+	 *            - the model being scored against.
+	 * @param isSentences
+	 *            - true to end every line with the end symbol.
+	 */
+	public LineScorer(final FrozenBigram theModel, final boolean isSentences) {
+		myModel = theModel;
+		mySentences = isSentences;
+		myStartId = theModel.getId(Bigram.START_SYMBOL);
+		myEndId = theModel.getId(Bigram.END_SYMBOL);
+		myUnknownId = theModel.getId(Bigram.UNKNOWN_SYMBOL);
+		myLineSeparator = System.lineSeparator().toCharArray();
+	}
+
+	/**
+	 * Calculates the perplexity of a line.
+	 *
+	 * @param theLine
+	 *            - line being evaluated.
+	 * @return the perplexity, infinity if the line has a pair that was never
+	 *         seen, NaN if the line has no words.
+	 */
+	public double perplexity(final CharSequence theLine) {
+		myTokenizer.reset(theLine);
+		return score();
+	}
+
+	/**
+	 * Calculates the perplexity of a line held in part of a text.
+	 *
+	 * @param theText
+	 *            - text holding the line.
+	 * @param theStart
+	 *            - index of the first char of the line.
+	 * @param theEnd
+	 *            - index after the last char of the line.
+	 * @return the perplexity, infinity if the line has a pair that was never
+	 *         seen, NaN if the line has no words.
+	 */
+	public double perplexity(final CharSequence theText, final int theStart, final int theEnd) {
+		myTokenizer.reset(theText, theStart, theEnd);
+		return score();
+	}
+
+	/**
+	 * Calculates the perplexity of a line held in part of a char array.
+	 *
+	 * @param theText
+	 *            - array holding the line.
+	 * @param theStart
+	 *            - index of the first char of the line.
+	 * @param theEnd
+	 *            - index after the last char of the line.
+	 * @return the perplexity, infinity if the line has a pair that was never
+	 *         seen, NaN if the line has no words.
+	 */
+	public double perplexity(final char[] theText, final int theStart, final int theEnd) {
+		myTokenizer.reset(theText, theStart, theEnd);
+		return score();
+	}
+
+	/**
+	 * Scores every line of a text, the way Bigram scores its evaluation
+	 * file: the text is split on the line separator and lines with no words
+	 * are skipped.
+	 *
+	 * @param theText
+	 *            - text being evaluated.
+	 * @param thePerplexities
+	 *            - array the perplexities are written to, in order. Scoring
+	 *            stops once it is full.
+	 * @return the number of lines scored.
+	 */
+	public int scoreLines(final CharSequence theText, final double[] thePerplexities) {
+		final int end = theText.length();
+		int count = 0;
+		int start = 0;
+		while (start <= end && count < thePerplexities.length) {
+			int lineEnd = start;
+			while (lineEnd < end && !isSeparatorAt(theText, lineEnd)) {
+				lineEnd += 1;
+			}
+			if (lineEnd > start) {
+				final double perplexity = perplexity(theText, start, lineEnd);
+				if (!Double.isNaN(perplexity)) {
+					thePerplexities[count++] = perplexity;
+				}
+			}
+			start = lineEnd + myLineSeparator.length;
+		}
+		return count;
+	}
+
+	/**
+	 * @param theText
+	 *            - text being evaluated.
+	 * @param theIndex
+	 *            - index in the text.
+	 * @return true if the line separator starts at that index.
+	 */
+	private boolean isSeparatorAt(final CharSequence theText, final int theIndex) {
+		if (theIndex + myLineSeparator.length > theText.length()) {
+			return false;
+		}
+		for (int i = 0; i < myLineSeparator.length; i++) {
+			if (theText.charAt(theIndex + i) != myLineSeparator[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scores the words of the tokenizer's current text.
+	 *
+	 * @return the perplexity, infinity if a pair was never seen, NaN if there
+	 *         are no words.
+	 */
+	private double score() {
+		double sum = 0.0;
+		int length = 0;
+		int context = myStartId;
+		while (myTokenizer.next()) {
+			int id = myModel.getId(myTokenizer.getTokenChars(), 0, myTokenizer.getTokenLength());
+			if (id < 0) {
+				id = myUnknownId;
+			}
+			final double logProb = myModel.getLogProbability(context, id);
+			if (logProb == Double.NEGATIVE_INFINITY) {
+				return Double.POSITIVE_INFINITY;
+			}
+			sum += logProb;
+			length += 1;
+			context = id;
+		}
+		if (length == 0) {
+			return Double.NaN;
+		}
+		if (mySentences) {
+			final double logProb = myModel.getLogProbability(context, myEndId);
+			if (logProb == Double.NEGATIVE_INFINITY) {
+				return Double.POSITIVE_INFINITY;
+			}
+			sum += logProb;
+			length += 1;
+		}
+		return Math.exp(-sum / length);
+	}
+}
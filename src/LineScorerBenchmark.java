@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Measures the bytes allocated and the time taken per line when the
+ * evaluation file is scored against a frozen sentence model, first the way
+ * Bigram does (splitting the text into Strings, making a String per word and
+ * keeping a boxed Double joint probability) and then by a LineScorer reading
+ * the text in place.
+ *
+ * Allocated bytes are read from the HotSpot com.sun.management.ThreadMXBean,
+ * which counts every byte the current thread allocates. Both paths are run a
+ * few times first so the JIT has compiled them before they are measured.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class LineScorerBenchmark {
+
+	/**
+	 * Number of unmeasured and measured runs of each path.
+	 */
+	public static int WARMUP_RUNS = 20;
+	public static int MEASURED_RUNS = 50;
+
+	/**
+	 * Written by every run so the JIT can not skip the work.
+	 */
+	private static volatile double mySink;
+
+	/**
+	 * @param args
+	 *            - optional name of the file to score, defaults to
+	 *            Bigram.FILE_NAME_TWO.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("This JVM can not count allocated bytes.");
+			return;
+		}
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		final long threadId = Thread.currentThread().getId();
+
+		final String fileName = args.length > 0 ? args[0] : Bigram.FILE_NAME_TWO;
+		Bigram.SENTENCES = true;
+		Bigram.FREEZE = true;
+		Bigram.reset();
+		Bigram.startProbalities();
+		final FrozenBigram model = Bigram.getFrozenModel();
+		final String text = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+		final LineScorer scorer = new LineScorer(model, true);
+		final double[] perplexities = new double[text.length()];
+		final int lines = scorer.scoreLines(text, perplexities);
+
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			mySink = scoreBySplitting(model, text);
+			mySink = scorer.scoreLines(text, perplexities);
+		}
+		long bytes = threads.getThreadAllocatedBytes(threadId);
+		long time = System.nanoTime();
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			mySink = scoreBySplitting(model, text);
+		}
+		final double splitNanos = (double) (System.nanoTime() - time) / MEASURED_RUNS / lines;
+		final double splitBytes = (double) (threads.getThreadAllocatedBytes(threadId) - bytes) / MEASURED_RUNS / lines;
+		bytes = threads.getThreadAllocatedBytes(threadId);
+		time = System.nanoTime();
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			mySink = scorer.scoreLines(text, perplexities);
+		}
+		final double scorerNanos = (double) (System.nanoTime() - time) / MEASURED_RUNS / lines;
+		final double scorerBytes = (double) (threads.getThreadAllocatedBytes(threadId) - bytes) / MEASURED_RUNS
+				/ lines;
+
+		System.out.println("Lines : " + lines);
+		System.out.println("Splitting : " + splitNanos + " ns, " + splitBytes + " bytes per line");
+		System.out.println("Line scorer : " + scorerNanos + " ns, " + scorerBytes + " bytes per line");
+	}
+
+	/**
+	 * Scores every line the way Bigram does, splitting the text into line
+	 * Strings, making a String for every word and counting the words of each
+	 * line again for its length.
+	 *
+	 * @param theModel
+	 *            - the model being scored against.
+	 * @param theText
+	 *            - text being evaluated.
+	 * @return the sum of the finite perplexities.
+	 */
+	private static double scoreBySplitting(final FrozenBigram theModel, final String theText) {
+		final Tokenizer tokenizer = new Tokenizer();
+		double total = 0.0;
+		for (final String line : theText.split(System.lineSeparator(), theText.length())) {
+			if (tokenizer.countTokens(line) == 0) {
+				continue;
+			}
+			Double lineProbability = 1.0;
+			String prevWord = Bigram.START_SYMBOL;
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				final String word = tokenizer.getToken();
+				final double probability = Math.exp(theModel.getLogProbability(prevWord, word));
+				if (probability == 0.0) {
+					lineProbability = 0.0;
+					break;
+				}
+				lineProbability *= probability;
+				prevWord = word;
+			}
+			if (lineProbability != 0.0) {
+				lineProbability *= Math.exp(theModel.getLogProbability(prevWord, Bigram.END_SYMBOL));
+			}
+			final int length = tokenizer.countTokens(line) + 1;
+			final double perplexity = 1.0 / Math.pow(lineProbability, 1.0 / length);
+			if (!Double.isInfinite(perplexity)) {
+				total += perplexity;
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,232 @@
+import java.util.Arrays;
+
+/**
+ * Counts long keys without boxing them. Keys and counts are stored in two
+ * parallel arrays using open addressing, and the arrays are doubled when
+ * they are half full. Keys must not be negative.
+ *
+ * Word pairs are counted by packing the id of the first word into the high
+ * 32 bits of the key and the id of the second word into the low 32 bits.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class LongCounter {
+
+	/**
+	 * Marks an empty slot.
+	 */
+	private static final long EMPTY = -1L;
+
+	/**
+	 * Parallel arrays of keys and their counts.
+	 */
+	private long[] myKeys;
+	private int[] myCounts;
+
+	/**
+	 * Number of keys stored.
+	 */
+	private int mySize;
+
+	/**
+	 * LongCounter constructor.
+	 */
+	public LongCounter() {
+		this(16);
+	}
+
+	/**
+	 * LongCounter constructor.
+	 *
+	 * @param theExpectedKeys
+	 *            - number of keys expected, used to size the arrays.
+	 */
+	public LongCounter(final int theExpectedKeys) {
+		int capacity = 16;
+		while (capacity < theExpectedKeys * 2) {
+			capacity *= 2;
+		}
+		myKeys = new long[capacity];
+		myCounts = new int[capacity];
+		Arrays.fill(myKeys, EMPTY);
+	}
+
+	/**
+	 * Packs two word ids into one key.
+	 *
+	 * @param theFirst
+	 *            - id of the first word.
+	 * @param theSecond
+	 *            - id of the second word.
+	 * @return the key of the pair.
+	 */
+	public static long pair(final int theFirst, final int theSecond) {
+		return ((long) theFirst << 32) | (theSecond & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param theKey
+	 *            - key made by pair().
+	 * @return the id of the first word.
+	 */
+	public static int first(final long theKey) {
+		return (int) (theKey >>> 32);
+	}
+
+	/**
+	 * @param theKey
+	 *            - key made by pair().
+	 * @return the id of the second word.
+	 */
+	public static int second(final long theKey) {
+		return (int) theKey;
+	}
+
+	/**
+	 * Adds to the count of a key.
+	 *
+	 * @param theKey
+	 *            - the key being counted.
+	 * @param theCount
+	 *            - amount added to the count.
+	 */
+	public void add(final long theKey, final int theCount) {
+		int index = slot(theKey);
+		if (myKeys[index] == EMPTY) {
+			if ((mySize + 1) * 2 > myKeys.length) {
+				grow();
+				index = slot(theKey);
+			}
+			myKeys[index] = theKey;
+			mySize += 1;
+		}
+		myCounts[index] += theCount;
+	}
+
+	/**
+	 * Adds every count of another counter to this one.
+	 *
+	 * @param theOther
+	 *            - the counter being added.
+	 */
+	public void addAll(final LongCounter theOther) {
+		for (int i = 0; i < theOther.myKeys.length; i++) {
+			if (theOther.myKeys[i] != EMPTY) {
+				add(theOther.myKeys[i], theOther.myCounts[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param theKey
+	 *            - the key being looked up.
+	 * @return the count of the key, 0 if it was never added.
+	 */
+	public int get(final long theKey) {
+		final int index = slot(theKey);
+		return myKeys[index] == EMPTY ? 0 : myCounts[index];
+	}
+
+	/**
+	 * @return the number of keys stored.
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * @return the number of slots, used with isUsed(), keyAt() and countAt()
+	 *         to go through every key.
+	 */
+	public int capacity() {
+		return myKeys.length;
+	}
+
+	/**
+	 * @param theSlot
+	 *            - index of a slot.
+	 * @return true if the slot holds a key.
+	 */
+	public boolean isUsed(final int theSlot) {
+		return myKeys[theSlot] != EMPTY;
+	}
+
+	/**
+	 * @param theSlot
+	 *            - index of a used slot.
+	 * @return the key in the slot.
+	 */
+	public long keyAt(final int theSlot) {
+		return myKeys[theSlot];
+	}
+
+	/**
+	 * @param theSlot
+	 *            - index of a used slot.
+	 * @return the count in the slot.
+	 */
+	public int countAt(final int theSlot) {
+		return myCounts[theSlot];
+	}
+
+	/**
+	 * @return every key in ascending order, so pairs with the same first word
+	 *         come together.
+	 */
+	public long[] sortedKeys() {
+		final long[] keys = new long[mySize];
+		int next = 0;
+		for (final long key : myKeys) {
+			if (key != EMPTY) {
+				keys[next++] = key;
+			}
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * @return the number of bytes used by the arrays.
+	 */
+	public long getMemoryBytes() {
+		return 12L * myKeys.length;
+	}
+
+	/**
+	 * Finds the slot holding a key, or the empty slot it would go in.
+	 *
+	 * @param theKey
+	 *            - the key being looked up.
+	 * @return the index of the slot.
+	 */
+	private int slot(final long theKey) {
+		long hash = theKey * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 32;
+		final int mask = myKeys.length - 1;
+		int index = (int) hash & mask;
+		while (myKeys[index] != EMPTY && myKeys[index] != theKey) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * Doubles the arrays and puts every key back in.
+	 */
+	private void grow() {
+		final long[] keys = myKeys;
+		final int[] counts = myCounts;
+		myKeys = new long[keys.length * 2];
+		myCounts = new int[keys.length * 2];
+		Arrays.fill(myKeys, EMPTY);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				final int index = slot(keys[i]);
+				myKeys[index] = keys[i];
+				myCounts[index] = counts[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,468 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps counters, gauges and latency histograms for the stages of training
+ * and scoring (read, count, freeze, write and score). Words are tokenized
+ * while they are counted, in the same pass, so there is no separate tokenize
+ * stage: its time is part of bigram.count and unigram.count.
+ *
+ * Every metric is kept by name. When ENABLED is false every method returns
+ * right away, so the calls can stay in the hot paths. The metrics can be read
+ * over JMX under the name "NGramJava:type=Metrics" and printed every few
+ * seconds with the log reporter.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class Metrics implements DynamicMBean {
+
+	/**
+	 * Turns all metrics on or off.
+	 */
+	public static boolean ENABLED = false;
+
+	/**
+	 * Name the metrics are registered under in JMX.
+	 */
+	public static String MBEAN_NAME = "NGramJava:type=Metrics";
+
+	/**
+	 * Seconds between reports printed by install(). 0 turns the reporter off.
+	 */
+	public static long REPORT_SECONDS = 0;
+
+	/**
+	 * Hashmaps that store each metric and its name.
+	 */
+	private static final Map<String, AtomicLong> myCounters = new ConcurrentHashMap<String, AtomicLong>();
+	private static final Map<String, Double> myGauges = new ConcurrentHashMap<String, Double>();
+	private static final Map<String, Histogram> myHistograms = new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * Thread that prints the metrics, null when the reporter is not running.
+	 */
+	private static ScheduledExecutorService myReporter;
+
+	/**
+	 * @return the current time in nanoseconds, or 0 when metrics are off.
+	 */
+	public static long start() {
+		return ENABLED ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Records how long a stage took since theStartTime.
+	 *
+	 * @param theName
+	 *            - name of the stage.
+	 * @param theStartTime
+	 *            - time returned by start().
+	 */
+	public static void stop(final String theName, final long theStartTime) {
+		if (ENABLED) {
+			histogram(theName).record(System.nanoTime() - theStartTime);
+		}
+	}
+
+	/**
+	 * Records how long a stage took and how many units (tokens, lines, bytes)
+	 * it processed. The units are added to the "theName.units" counter and the
+	 * rate is kept in the "theName.perSecond" gauge.
+	 *
+	 * @param theName
+	 *            - name of the stage.
+	 * @param theStartTime
+	 *            - time returned by start().
+	 * @param theUnits
+	 *            - number of units processed by the stage.
+	 */
+	public static void stop(final String theName, final long theStartTime, final long theUnits) {
+		if (ENABLED) {
+			final long elapsed = System.nanoTime() - theStartTime;
+			histogram(theName).record(elapsed);
+			increment(theName + ".units", theUnits);
+			gauge(theName + ".perSecond", elapsed == 0 ? 0.0 : theUnits * 1e9 / elapsed);
+		}
+	}
+
+	/**
+	 * Adds to a counter.
+	 *
+	 * @param theName
+	 *            - name of the counter.
+	 * @param theDelta
+	 *            - amount added to the counter.
+	 */
+	public static void increment(final String theName, final long theDelta) {
+		if (ENABLED) {
+			AtomicLong counter = myCounters.get(theName);
+			if (counter == null) {
+				myCounters.putIfAbsent(theName, new AtomicLong());
+				counter = myCounters.get(theName);
+			}
+			counter.addAndGet(theDelta);
+		}
+	}
+
+	/**
+	 * Sets a gauge.
+	 *
+	 * @param theName
+	 *            - name of the gauge.
+	 * @param theValue
+	 *            - current value of the gauge.
+	 */
+	public static void gauge(final String theName, final double theValue) {
+		if (ENABLED) {
+			myGauges.put(theName, theValue);
+		}
+	}
+
+	/**
+	 * @param theName
+	 *            - name of the counter.
+	 * @return the value of the counter, 0 if it was never incremented.
+	 */
+	public static long getCounter(final String theName) {
+		final AtomicLong counter = myCounters.get(theName);
+		return counter == null ? 0L : counter.get();
+	}
+
+	/**
+	 * @param theName
+	 *            - name of the gauge.
+	 * @return the value of the gauge, NaN if it was never set.
+	 */
+	public static double getGauge(final String theName) {
+		final Double value = myGauges.get(theName);
+		return value == null ? Double.NaN : value;
+	}
+
+	/**
+	 * @param theName
+	 *            - name of the histogram.
+	 * @return the histogram, or null if nothing was recorded.
+	 */
+	public static Histogram getHistogram(final String theName) {
+		return myHistograms.get(theName);
+	}
+
+	/**
+	 * Removes every metric.
+	 */
+	public static void reset() {
+		myCounters.clear();
+		myGauges.clear();
+		myHistograms.clear();
+	}
+
+	/**
+	 * Registers the MBean and starts the reporter when metrics are turned on.
+	 * Called at the start of each main method.
+	 */
+	public static void install() {
+		if (ENABLED) {
+			registerMBean();
+			if (REPORT_SECONDS > 0) {
+				startReporter(REPORT_SECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Stops the reporter and prints a final report when metrics are turned
+	 * on. Called at the end of each main method.
+	 */
+	public static void finish() {
+		if (ENABLED) {
+			stopReporter();
+			System.out.print(report());
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. Registering twice
+	 * does nothing.
+	 */
+	public static void registerMBean() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(MBEAN_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new Metrics(), name);
+			}
+		} catch (final JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts printing all metrics to standard out every few seconds.
+	 *
+	 * @param theSeconds
+	 *            - number of seconds between reports.
+	 */
+	public static synchronized void startReporter(final long theSeconds) {
+		stopReporter();
+		myReporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable theRunnable) {
+				final Thread thread = new Thread(theRunnable, "metrics-reporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		myReporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				System.out.print(report());
+			}
+		}, theSeconds, theSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the reporter if it is running.
+	 */
+	public static synchronized void stopReporter() {
+		if (myReporter != null) {
+			myReporter.shutdownNow();
+			myReporter = null;
+		}
+	}
+
+	/**
+	 * @return every metric, one per line, sorted by name.
+	 */
+	public static String report() {
+		final List<String> lines = new ArrayList<String>();
+		for (final Map.Entry<String, AtomicLong> entry : myCounters.entrySet()) {
+			lines.add(entry.getKey() + " = " + entry.getValue().get());
+		}
+		for (final Map.Entry<String, Double> entry : myGauges.entrySet()) {
+			lines.add(entry.getKey() + " = " + entry.getValue());
+		}
+		for (final Map.Entry<String, Histogram> entry : myHistograms.entrySet()) {
+			lines.add(entry.getKey() + " = " + entry.getValue());
+		}
+		Collections.sort(lines);
+		final StringBuilder builder = new StringBuilder();
+		for (final String line : lines) {
+			builder.append(line).append(System.lineSeparator());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Gets a histogram by name, creating it if needed.
+	 *
+	 * @param theName
+	 *            - name of the histogram.
+	 * @return the histogram.
+	 */
+	private static Histogram histogram(final String theName) {
+		Histogram histogram = myHistograms.get(theName);
+		if (histogram == null) {
+			myHistograms.putIfAbsent(theName, new Histogram());
+			histogram = myHistograms.get(theName);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Gets a JMX attribute. Counters and gauges are read by name. Histograms
+	 * are read as "theName.count", "theName.meanMillis", "theName.p50Millis",
+	 * "theName.p99Millis" and "theName.maxMillis".
+	 */
+	@Override
+	public Object getAttribute(final String theAttribute) throws AttributeNotFoundException {
+		if (myCounters.containsKey(theAttribute)) {
+			return getCounter(theAttribute);
+		}
+		if (myGauges.containsKey(theAttribute)) {
+			return getGauge(theAttribute);
+		}
+		final int dot = theAttribute.lastIndexOf('.');
+		if (dot > 0) {
+			final Histogram histogram = myHistograms.get(theAttribute.substring(0, dot));
+			if (histogram != null) {
+				final String field = theAttribute.substring(dot + 1);
+				if ("count".equals(field)) {
+					return histogram.getCount();
+				} else if ("meanMillis".equals(field)) {
+					return histogram.getMean() / 1e6;
+				} else if ("p50Millis".equals(field)) {
+					return histogram.getPercentile(0.50) / 1e6;
+				} else if ("p99Millis".equals(field)) {
+					return histogram.getPercentile(0.99) / 1e6;
+				} else if ("maxMillis".equals(field)) {
+					return histogram.getMax() / 1e6;
+				}
+			}
+		}
+		throw new AttributeNotFoundException(theAttribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(final String[] theAttributes) {
+		final AttributeList list = new AttributeList();
+		for (final String name : theAttributes) {
+			try {
+				list.add(new Attribute(name, getAttribute(name)));
+			} catch (final AttributeNotFoundException e) {
+				// Missing attributes are left out of the list.
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(final Attribute theAttribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read only: " + theAttribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(final AttributeList theAttributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(final String theActionName, final Object[] theParams, final String[] theSignature) {
+		if ("reset".equals(theActionName)) {
+			reset();
+		}
+		return null;
+	}
+
+	/**
+	 * Lists every metric currently recorded as a JMX attribute.
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (final String name : myCounters.keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "long", "counter", true, false, false));
+		}
+		for (final String name : myGauges.keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "double", "gauge", true, false, false));
+		}
+		for (final String name : myHistograms.keySet()) {
+			attributes.add(new MBeanAttributeInfo(name + ".count", "long", "histogram", true, false, false));
+			for (final String field : new String[] { "meanMillis", "p50Millis", "p99Millis", "maxMillis" }) {
+				attributes.add(new MBeanAttributeInfo(name + "." + field, "double", "histogram", true, false, false));
+			}
+		}
+		final MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Removes every metric", null, "void",
+				MBeanOperationInfo.ACTION);
+		return new MBeanInfo(Metrics.class.getName(), "NGramJava training and scoring metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset }, null);
+	}
+
+	/**
+	 * Latency histogram with one bucket per power of two nanoseconds.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	static class Histogram {
+
+		/**
+		 * Bucket i counts values v where 2^(i-1) <= v < 2^i.
+		 */
+		private final AtomicLongArray myBuckets = new AtomicLongArray(64);
+		private final AtomicLong myCount = new AtomicLong();
+		private final AtomicLong mySum = new AtomicLong();
+		private final AtomicLong myMax = new AtomicLong();
+
+		/**
+		 * Records one value.
+		 *
+		 * @param theNanos
+		 *            - value being recorded.
+		 */
+		public void record(final long theNanos) {
+			final long value = Math.max(0L, theNanos);
+			myBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+			myCount.incrementAndGet();
+			mySum.addAndGet(value);
+			long max = myMax.get();
+			while (value > max && !myMax.compareAndSet(max, value)) {
+				max = myMax.get();
+			}
+		}
+
+		/**
+		 * @return the number of values recorded.
+		 */
+		public long getCount() {
+			return myCount.get();
+		}
+
+		/**
+		 * @return the mean of the values recorded.
+		 */
+		public double getMean() {
+			final long count = myCount.get();
+			return count == 0 ? 0.0 : (double) mySum.get() / count;
+		}
+
+		/**
+		 * @return the largest value recorded.
+		 */
+		public long getMax() {
+			return myMax.get();
+		}
+
+		/**
+		 * Estimates a percentile by the upper bound of the bucket it falls in.
+		 *
+		 * @param theFraction
+		 *            - percentile between 0 and 1.
+		 * @return the estimated value at that percentile.
+		 */
+		public double getPercentile(final double theFraction) {
+			final long target = (long) Math.ceil(theFraction * myCount.get());
+			long seen = 0;
+			for (int i = 0; i < myBuckets.length(); i++) {
+				seen += myBuckets.get(i);
+				if (seen >= target && seen > 0) {
+					return Math.min(i == 0 ? 0.0 : Math.pow(2, i) - 1, myMax.get());
+				}
+			}
+			return myMax.get();
+		}
+
+		/**
+		 * @return the count, mean, median, 99th percentile and max in
+		 *         milliseconds.
+		 */
+		@Override
+		public String toString() {
+			return String.format("count : %d, mean : %.3fms, p50 : %.3fms, p99 : %.3fms, max : %.3fms", getCount(),
+					getMean() / 1e6, getPercentile(0.50) / 1e6, getPercentile(0.99) / 1e6, getMax() / 1e6);
+		}
+	}
+}
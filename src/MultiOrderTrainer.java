@@ -0,0 +1,284 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts unigrams, bigrams and, if asked, higher order n-grams in one pass
+ * over the corpus, with one tokenizer and one vocabulary shared by every
+ * order. Unigram and Bigram used to read and split the corpus separately;
+ * this trainer reads it once and fills both.
+ *
+ * Unigram counts are not kept on their own. Every word is followed by
+ * exactly one word or the end symbol, so the count of a word is the sum of
+ * the bigram counts it starts, and it is worked out from the bigram counts.
+ *
+ * N-grams are counted in a LongCounter with the ids of their words packed
+ * into one long, 63 / n bits per id. For trigrams that allows about two
+ * million words.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class MultiOrderTrainer {
+
+	/**
+	 * Highest order counted, at least 2.
+	 */
+	public static int ORDER = 2;
+
+	/**
+	 * Highest order counted by this trainer.
+	 */
+	private final int myOrder;
+
+	/**
+	 * Word ids shared by every order.
+	 */
+	private final Vocabulary myVocabulary;
+
+	/**
+	 * Counts of each order, myCounts[n] holding n-grams. Index 0 and 1 are
+	 * not used.
+	 */
+	private final LongCounter[] myCounts;
+
+	/**
+	 * Counter of word id to number of occurrences, worked out from the bigram
+	 * counts after every call to train().
+	 */
+	private LongCounter myUnigramCounts;
+
+	/**
+	 * Ids of the start and end symbols.
+	 */
+	private final int myStartId;
+	private final int myEndId;
+
+	/**
+	 * MultiOrderTrainer constructor.
+	 *
+	 * @param theOrder
+	 *            - highest order counted, at least 2.
+	 */
+	public MultiOrderTrainer(final int theOrder) {
+		if (theOrder < 2 || theOrder > 9) {
+			throw new IllegalArgumentException("Order must be between 2 and 9: " + theOrder);
+		}
+		myOrder = theOrder;
+		myVocabulary = new Vocabulary();
+		myCounts = new LongCounter[theOrder + 1];
+		for (int n = 2; n <= theOrder; n++) {
+			myCounts[n] = new LongCounter(1 << 16);
+		}
+		myStartId = myVocabulary.intern(Bigram.START_SYMBOL);
+		myEndId = myVocabulary.intern(Bigram.END_SYMBOL);
+		myUnigramCounts = new LongCounter();
+	}
+
+	/**
+	 * Trains both models from the given inputs in one pass, then writes their
+	 * probabilities and evaluates them as their own main methods do.
+	 *
+	 * @param args
+	 *            - files, directories or glob patterns to read.
+	 * @throws IOException
+	 *             if an input can not be listed or read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final List<Path> files = CorpusIngester
+				.expand(args.length > 0 ? args : new String[] { Bigram.FILE_NAME_ONE });
+		Unigram.reset();
+		Bigram.reset();
+
+		Metrics.install();
+		final MultiOrderTrainer trainer = new MultiOrderTrainer(ORDER);
+		trainer.train(files);
+		trainer.fillModels();
+		for (int n = 2; n <= ORDER; n++) {
+			System.out.println("Distinct " + n + "-grams : " + trainer.getDistinctCount(n));
+		}
+		Unigram.finishTraining();
+		Bigram.finishTraining();
+		Unigram.startEvaluation();
+		Bigram.startEvaluation();
+		Metrics.finish();
+	}
+
+	/**
+	 * Counts every order in one pass over the files. Each file is its own
+	 * stream of words, padded with start symbols in front and an end symbol
+	 * behind. When Bigram.SENTENCES is true each line that is not blank is
+	 * padded the same way instead.
+	 *
+	 * @param theFiles
+	 *            - files being read.
+	 * @throws IOException
+	 *             if a file can not be read.
+	 */
+	public void train(final List<Path> theFiles) throws IOException {
+		final long time = Metrics.start();
+		final Tokenizer tokenizer = new Tokenizer();
+		final int[] history = new int[myOrder];
+		long words = 0;
+		for (final Path file : theFiles) {
+			Arrays.fill(history, myStartId);
+			boolean empty = true;
+			try (BufferedReader reader = CorpusIngester.open(file)) {
+				String line = reader.readLine();
+				while (line != null) {
+					boolean blank = true;
+					tokenizer.reset(line);
+					while (tokenizer.next()) {
+						add(history, myVocabulary.intern(tokenizer.getToken()));
+						blank = false;
+						words += 1;
+					}
+					// Blank lines are not sentences.
+					if (Bigram.SENTENCES && !blank) {
+						add(history, myEndId);
+						Arrays.fill(history, myStartId);
+					}
+					empty &= blank;
+					line = reader.readLine();
+				}
+			}
+			if (!Bigram.SENTENCES && !empty) {
+				add(history, myEndId);
+			}
+		}
+		myUnigramCounts = countUnigrams();
+		Metrics.stop("multiorder.train", time, words);
+	}
+
+	/**
+	 * Shifts a word into the history and counts the n-gram of every order
+	 * that ends with it.
+	 *
+	 * @param theHistory
+	 *            - ids of the last myOrder words, oldest first.
+	 * @param theId
+	 *            - id of the next word.
+	 */
+	private void add(final int[] theHistory, final int theId) {
+		System.arraycopy(theHistory, 1, theHistory, 0, myOrder - 1);
+		theHistory[myOrder - 1] = theId;
+		for (int n = 2; n <= myOrder; n++) {
+			myCounts[n].add(pack(theHistory, myOrder - n, n), 1);
+		}
+	}
+
+	/**
+	 * Packs the ids of an n-gram into one key.
+	 *
+	 * @param theIds
+	 *            - array holding the ids.
+	 * @param theStart
+	 *            - index of the first id of the n-gram.
+	 * @param theOrder
+	 *            - number of ids in the n-gram.
+	 * @return the key of the n-gram.
+	 */
+	private long pack(final int[] theIds, final int theStart, final int theOrder) {
+		if (theOrder == 2) {
+			return LongCounter.pair(theIds[theStart], theIds[theStart + 1]);
+		}
+		final int bits = 63 / theOrder;
+		long key = 0;
+		for (int i = theStart; i < theStart + theOrder; i++) {
+			if (theIds[i] >>> bits != 0) {
+				throw new IllegalStateException("Vocabulary too large for " + theOrder + "-grams: " + theIds[i]);
+			}
+			key = (key << bits) | theIds[i];
+		}
+		return key;
+	}
+
+	/**
+	 * Adds the counts to Unigram and Bigram. Unigram counts are the sums of
+	 * the bigram counts each word starts.
+	 */
+	public void fillModels() {
+		final long time = Metrics.start();
+		final LongCounter unigrams = getUnigramCounts();
+		for (int i = 0; i < unigrams.capacity(); i++) {
+			if (unigrams.isUsed(i)) {
+				Unigram.addCount(myVocabulary.getWord((int) unigrams.keyAt(i)), unigrams.countAt(i));
+			}
+		}
+		// Added one context row at a time, not one pair at a time.
+		Bigram.addCounts(myCounts[2], myVocabulary);
+		Metrics.stop("multiorder.fill", time);
+	}
+
+	/**
+	 * @return counter of word id to number of occurrences, shared by every
+	 *         caller, so it must not be changed.
+	 */
+	public LongCounter getUnigramCounts() {
+		return myUnigramCounts;
+	}
+
+	/**
+	 * Works out the unigram counts from the bigram counts.
+	 *
+	 * @return counter of word id to number of occurrences.
+	 */
+	private LongCounter countUnigrams() {
+		final LongCounter bigrams = myCounts[2];
+		final LongCounter unigrams = new LongCounter(myVocabulary.size());
+		for (int i = 0; i < bigrams.capacity(); i++) {
+			if (bigrams.isUsed(i)) {
+				final int first = LongCounter.first(bigrams.keyAt(i));
+				if (first != myStartId) {
+					unigrams.add(first, bigrams.countAt(i));
+				}
+			}
+		}
+		return unigrams;
+	}
+
+	/**
+	 * Gets the count of an n-gram of any order up to the trainer's order.
+	 *
+	 * @param theWords
+	 *            - the words of the n-gram, in order.
+	 * @return the number of times the n-gram was seen.
+	 * @throws IllegalArgumentException
+	 *             if there are no words or more than the trainer's order.
+	 */
+	public int getCount(final String... theWords) {
+		if (theWords.length < 1 || theWords.length > myOrder) {
+			throw new IllegalArgumentException("Order " + theWords.length + " was not counted");
+		}
+		final int[] ids = new int[theWords.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = myVocabulary.getId(theWords[i]);
+			if (ids[i] < 0) {
+				return 0;
+			}
+		}
+		if (ids.length == 1) {
+			return myUnigramCounts.get(ids[0]);
+		}
+		return myCounts[ids.length].get(pack(ids, 0, ids.length));
+	}
+
+	/**
+	 * @param theOrder
+	 *            - order being looked up, from 2 to the trainer's order.
+	 * @return the number of distinct n-grams of that order.
+	 */
+	public int getDistinctCount(final int theOrder) {
+		return myCounts[theOrder].size();
+	}
+
+	/**
+	 * @return the vocabulary shared by every order.
+	 */
+	public Vocabulary getVocabulary() {
+		return myVocabulary;
+	}
+}
@@ -0,0 +1,83 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts word pairs in hashmap<theContext, hashmap<theWord, theCount>> for
+ * one thread, so threads counting different parts of the corpus never wait
+ * on each other, then adds them to Bigram.
+ *
+ * PairCounts is not thread safe, each thread should use its own.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class PairCounts {
+
+	/**
+	 * Hashmap<theContext, hashmap<theWord, theCount>>.
+	 */
+	private final HashMap<String, HashMap<String, int[]>> myPairs = new HashMap<String, HashMap<String, int[]>>();
+
+	/**
+	 * Number of distinct pairs counted.
+	 */
+	private int mySize;
+
+	/**
+	 * Counts one occurrence of theWord following theContext.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 */
+	public void add(final String theContext, final String theWord) {
+		HashMap<String, int[]> row = myPairs.get(theContext);
+		if (row == null) {
+			row = new HashMap<String, int[]>();
+			myPairs.put(theContext, row);
+		}
+		if (add(row, theWord)) {
+			mySize += 1;
+		}
+	}
+
+	/**
+	 * Adds every count to Bigram's node graph and empties these counts. The
+	 * caller must make sure no other thread changes Bigram at the same time.
+	 */
+	public void mergeInto() {
+		for (final Map.Entry<String, HashMap<String, int[]>> row : myPairs.entrySet()) {
+			Bigram.addCounts(row.getKey(), row.getValue());
+		}
+		myPairs.clear();
+		mySize = 0;
+	}
+
+	/**
+	 * @return the number of distinct pairs counted.
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * Counts one occurrence of a word.
+	 *
+	 * @param theCounts
+	 *            - hashmap<theWord, theCount> being added to.
+	 * @param theWord
+	 *            - the word being counted.
+	 * @return true if it is the first occurrence of the word.
+	 */
+	static boolean add(final HashMap<String, int[]> theCounts, final String theWord) {
+		final int[] count = theCounts.get(theWord);
+		if (count == null) {
+			theCounts.put(theWord, new int[] { 1 });
+			return true;
+		}
+		count[0] += 1;
+		return false;
+	}
+}
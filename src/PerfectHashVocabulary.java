@@ -0,0 +1,354 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A read only vocabulary that gives each of its n words an id from 0 to n - 1
+ * with a minimal perfect hash, so no words or boxed ids are stored.
+ *
+ * The hash is built in levels. Each word is hashed to a bit of the first
+ * level; words that land on a bit no other word landed on keep it, the rest
+ * try again in a smaller second level, and so on. The id of a word is the
+ * number of kept bits before its own, found with a table of counts taken
+ * every 512 bits. The levels take about 3 bits per word and most words are
+ * found in the first level.
+ *
+ * A perfect hash gives some id to any word, so a 16 bit fingerprint of every
+ * word is kept by id, and a word that is not in the vocabulary is rejected
+ * unless its fingerprint happens to match, about once in 65536 lookups.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class PerfectHashVocabulary implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Bits in a level for each word left to place. Larger values use more
+	 * memory and need fewer levels.
+	 */
+	private static final double GAMMA = 1.0;
+
+	/**
+	 * Words still not placed after this many levels are kept in a hashmap.
+	 */
+	private static final int MAX_LEVELS = 32;
+
+	/**
+	 * Number of words.
+	 */
+	private final int mySize;
+
+	/**
+	 * Bits of every level, one after the other, and the bit each level starts
+	 * at. Each level is a whole number of longs.
+	 */
+	private final long[] myBits;
+	private final long[] myLevelStart;
+	private final long[] myLevelSize;
+
+	/**
+	 * Number of set bits before every block of 8 longs.
+	 */
+	private final int[] myRanks;
+
+	/**
+	 * Fingerprint of the word with each id.
+	 */
+	private final char[] myFingerprints;
+
+	/**
+	 * Hashmap<theWord, theId> of words no level could place.
+	 */
+	private final HashMap<String, Integer> myOverflow;
+
+	/**
+	 * Builds the hash for a collection of distinct words.
+	 *
+	 * @param theWords
+	 *            - the words, with no duplicates.
+	 */
+	public PerfectHashVocabulary(final Collection<String> theWords) {
+		mySize = theWords.size();
+		long[] hashes = new long[mySize];
+		String[] words = theWords.toArray(new String[mySize]);
+		for (int i = 0; i < mySize; i++) {
+			hashes[i] = hash(words[i]);
+		}
+
+		final List<long[]> levels = new ArrayList<long[]>();
+		int remaining = mySize;
+		while (remaining > 0 && levels.size() < MAX_LEVELS) {
+			final int level = levels.size();
+			final long size = Math.max(64, ((long) Math.ceil(remaining * GAMMA) + 63) / 64 * 64);
+			final long[] seen = new long[(int) (size / 64)];
+			final long[] collided = new long[seen.length];
+			for (int i = 0; i < remaining; i++) {
+				final long bit = position(hashes[i], level, size);
+				if ((seen[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+					collided[(int) (bit >>> 6)] |= 1L << bit;
+				} else {
+					seen[(int) (bit >>> 6)] |= 1L << bit;
+				}
+			}
+			// Keep the bits only one word landed on, and move the rest on.
+			int left = 0;
+			for (int i = 0; i < remaining; i++) {
+				final long bit = position(hashes[i], level, size);
+				if ((collided[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+					hashes[left] = hashes[i];
+					words[left] = words[i];
+					left += 1;
+				}
+			}
+			for (int i = 0; i < seen.length; i++) {
+				seen[i] &= ~collided[i];
+			}
+			levels.add(seen);
+			remaining = left;
+		}
+		words = Arrays.copyOf(words, remaining);
+
+		// Join the levels and count the set bits.
+		int longs = 0;
+		for (final long[] level : levels) {
+			longs += level.length;
+		}
+		myBits = new long[longs];
+		myLevelStart = new long[levels.size()];
+		myLevelSize = new long[levels.size()];
+		int offset = 0;
+		for (int i = 0; i < levels.size(); i++) {
+			final long[] level = levels.get(i);
+			System.arraycopy(level, 0, myBits, offset, level.length);
+			myLevelStart[i] = 64L * offset;
+			myLevelSize[i] = 64L * level.length;
+			offset += level.length;
+		}
+		myRanks = new int[(myBits.length + 7) / 8 + 1];
+		int ones = 0;
+		for (int i = 0; i < myBits.length; i++) {
+			if (i % 8 == 0) {
+				myRanks[i / 8] = ones;
+			}
+			ones += Long.bitCount(myBits[i]);
+		}
+		myRanks[myRanks.length - 1] = ones;
+
+		myOverflow = new HashMap<String, Integer>();
+		for (int i = 0; i < remaining; i++) {
+			myOverflow.put(words[i], ones + i);
+		}
+
+		myFingerprints = new char[mySize];
+		for (final String word : theWords) {
+			final long hash = hash(word);
+			myFingerprints[find(hash, word)] = fingerprint(hash);
+		}
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the id of the word, or -1 if it is not in the vocabulary.
+	 */
+	public int getId(final CharSequence theWord) {
+		return check(hash(theWord), theWord);
+	}
+
+	/**
+	 * Looks up a word held in part of a char array, without making a String.
+	 *
+	 * @param theChars
+	 *            - array holding the word.
+	 * @param theStart
+	 *            - index of the first char of the word.
+	 * @param theEnd
+	 *            - index after the last char of the word.
+	 * @return the id of the word, or -1 if it is not in the vocabulary.
+	 */
+	public int getId(final char[] theChars, final int theStart, final int theEnd) {
+		final long hash = hash(theChars, theStart, theEnd);
+		int id = findInLevels(hash);
+		if (id < 0 && !myOverflow.isEmpty()) {
+			// Only a hash that fell through every level needs the String.
+			final Integer overflow = myOverflow.get(new String(theChars, theStart, theEnd - theStart));
+			id = overflow == null ? -1 : overflow;
+		}
+		if (id < 0 || myFingerprints[id] != fingerprint(hash)) {
+			return -1;
+		}
+		return id;
+	}
+
+	/**
+	 * @return the number of words.
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * @return the number of levels words were placed in.
+	 */
+	public int getLevelCount() {
+		return myLevelStart.length;
+	}
+
+	/**
+	 * @return the bits per word used by the hash, not counting the
+	 *         fingerprints.
+	 */
+	public double getBitsPerKey() {
+		return mySize == 0 ? 0.0 : (64.0 * myBits.length + 32.0 * myRanks.length) / mySize;
+	}
+
+	/**
+	 * @return the number of bytes used by the levels, counts and
+	 *         fingerprints.
+	 */
+	public long getMemoryBytes() {
+		return 8L * myBits.length + 4L * myRanks.length + 2L * myFingerprints.length;
+	}
+
+	/**
+	 * Finds the id of a hash and checks its fingerprint.
+	 *
+	 * @param theHash
+	 *            - hash of the word.
+	 * @param theWord
+	 *            - the word, only needed when some words overflowed.
+	 * @return the id of the word, or -1 if it is not in the vocabulary.
+	 */
+	private int check(final long theHash, final CharSequence theWord) {
+		final int id = find(theHash, theWord);
+		if (id < 0 || myFingerprints[id] != fingerprint(theHash)) {
+			return -1;
+		}
+		return id;
+	}
+
+	/**
+	 * Finds the id a hash maps to, without checking the fingerprint.
+	 *
+	 * @param theHash
+	 *            - hash of the word.
+	 * @param theWord
+	 *            - the word, only needed when some words overflowed.
+	 * @return the id, or -1 if the hash fell through every level.
+	 */
+	private int find(final long theHash, final CharSequence theWord) {
+		final int id = findInLevels(theHash);
+		if (id >= 0 || theWord == null || myOverflow.isEmpty()) {
+			return id;
+		}
+		final Integer overflow = myOverflow.get(theWord.toString());
+		return overflow == null ? -1 : overflow;
+	}
+
+	/**
+	 * Finds the id a hash maps to in the levels, leaving out the overflow.
+	 *
+	 * @param theHash
+	 *            - hash of the word.
+	 * @return the id, or -1 if the hash fell through every level.
+	 */
+	private int findInLevels(final long theHash) {
+		for (int level = 0; level < myLevelStart.length; level++) {
+			final long bit = myLevelStart[level] + position(theHash, level, myLevelSize[level]);
+			if ((myBits[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+				return rank(bit);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param theBit
+	 *            - index of a bit.
+	 * @return the number of set bits before it.
+	 */
+	private int rank(final long theBit) {
+		final int word = (int) (theBit >>> 6);
+		int rank = myRanks[word / 8];
+		for (int i = word / 8 * 8; i < word; i++) {
+			rank += Long.bitCount(myBits[i]);
+		}
+		return rank + Long.bitCount(myBits[word] & ((1L << theBit) - 1));
+	}
+
+	/**
+	 * @param theHash
+	 *            - hash of a word.
+	 * @param theLevel
+	 *            - the level being looked in.
+	 * @param theSize
+	 *            - number of bits in the level.
+	 * @return the bit of the level the word lands on.
+	 */
+	private static long position(final long theHash, final int theLevel, final long theSize) {
+		final long mixed = mix(theHash + (theLevel + 1) * 0x9E3779B97F4A7C15L);
+		return ((mixed >>> 32) * theSize) >>> 32;
+	}
+
+	/**
+	 * @param theHash
+	 *            - hash of a word.
+	 * @return the fingerprint of the word.
+	 */
+	private static char fingerprint(final long theHash) {
+		return (char) theHash;
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being hashed.
+	 * @return a 64 bit hash of the chars of the word.
+	 */
+	static long hash(final CharSequence theWord) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < theWord.length(); i++) {
+			hash = (hash ^ theWord.charAt(i)) * 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * @param theChars
+	 *            - array holding the word.
+	 * @param theStart
+	 *            - index of the first char of the word.
+	 * @param theEnd
+	 *            - index after the last char of the word.
+	 * @return the same hash as hash(CharSequence) of the word.
+	 */
+	static long hash(final char[] theChars, final int theStart, final int theEnd) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = theStart; i < theEnd; i++) {
+			hash = (hash ^ theChars[i]) * 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Mixes the bits of a hash so every input bit affects every output bit.
+	 *
+	 * @param theValue
+	 *            - the value being mixed.
+	 * @return the mixed value.
+	 */
+	private static long mix(final long theValue) {
+		long value = theValue;
+		value ^= value >>> 33;
+		value *= 0xFF51AFD7ED558CCDL;
+		value ^= value >>> 33;
+		value *= 0xC4CEB9FE1A85EC53L;
+		value ^= value >>> 33;
+		return value;
+	}
+}
@@ -0,0 +1,154 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe cache that keeps the most recently used entries and
+ * evicts the least recently used one once it is full. It is used in front of
+ * the line scoring of our bigram so that repeated lines and prefixes are only
+ * scored once.
+ *
+ * Hits, misses and evictions are counted so we can see how well the cache is
+ * doing.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ * @param <K>
+ *            - type of the key being cached.
+ * @param <V>
+ *            - type of the value being cached.
+ */
+public class ScoreCache<K, V> {
+
+	/**
+	 * Maximum number of entries the cache will hold.
+	 */
+	private final int myCapacity;
+
+	/**
+	 * Linked hashmap kept in access order, so the eldest entry is always the
+	 * least recently used one.
+	 */
+	private final LinkedHashMap<K, V> myMap;
+
+	/**
+	 * Counters for hits, misses and evictions.
+	 */
+	private long myHits;
+	private long myMisses;
+	private long myEvictions;
+
+	/**
+	 * ScoreCache constructor.
+	 *
+	 * @param theCapacity
+	 *            - maximum number of entries kept in the cache.
+	 */
+	public ScoreCache(final int theCapacity) {
+		if (theCapacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + theCapacity);
+		}
+		myCapacity = theCapacity;
+		myMap = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, V> theEldest) {
+				if (size() > myCapacity) {
+					myEvictions += 1;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cached value for a key and counts it as a hit or a miss.
+	 *
+	 * @param theKey
+	 *            - key being looked up.
+	 * @return the cached value, or null if it is not in the cache.
+	 */
+	public synchronized V get(final K theKey) {
+		final V value = myMap.get(theKey);
+		if (value == null) {
+			myMisses += 1;
+		} else {
+			myHits += 1;
+		}
+		return value;
+	}
+
+	/**
+	 * Puts a value in the cache, evicting the least recently used entry if the
+	 * cache is full.
+	 *
+	 * @param theKey
+	 *            - key being cached.
+	 * @param theValue
+	 *            - value being cached.
+	 */
+	public synchronized void put(final K theKey, final V theValue) {
+		myMap.put(theKey, theValue);
+	}
+
+	/**
+	 * Removes every entry. The counters are kept.
+	 */
+	public synchronized void clear() {
+		myMap.clear();
+	}
+
+	/**
+	 * @return the number of entries in the cache.
+	 */
+	public synchronized int size() {
+		return myMap.size();
+	}
+
+	/**
+	 * @return the maximum number of entries in the cache.
+	 */
+	public int getCapacity() {
+		return myCapacity;
+	}
+
+	/**
+	 * @return the number of lookups that found a value.
+	 */
+	public synchronized long getHits() {
+		return myHits;
+	}
+
+	/**
+	 * @return the number of lookups that did not find a value.
+	 */
+	public synchronized long getMisses() {
+		return myMisses;
+	}
+
+	/**
+	 * @return the number of entries removed to make room for new ones.
+	 */
+	public synchronized long getEvictions() {
+		return myEvictions;
+	}
+
+	/**
+	 * @return the fraction of lookups that found a value.
+	 */
+	public synchronized double getHitRate() {
+		final long total = myHits + myMisses;
+		return total == 0 ? 0.0 : (double) myHits / total;
+	}
+
+	/**
+	 * @return the hits, misses, evictions and size of the cache.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "hits : " + myHits + ", misses : " + myMisses + ", evictions : " + myEvictions + ", size : "
+				+ myMap.size() + "/" + myCapacity;
+	}
+}
@@ -0,0 +1,371 @@
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores the evaluation file under many smoothing settings while counting
+ * the training file only once.
+ *
+ * Word pairs are counted once. Then, for every pair of the evaluation file,
+ * the counts any smoothing method needs are looked up once: the count of the
+ * pair, the count and number of different followers of its first word, and
+ * how often its second word follows anything. These are kept in arrays that
+ * never change, and every setting is scored from them by its own thread, so
+ * a grid of 100 settings costs about one training run.
+ *
+ * Three methods are swept, each over POINTS_PER_METHOD values:
+ * add-k, P = (c(a b) + k) / (c(a) + k(V + 1));
+ * interpolation, P = l c(a b) / c(a) + (1 - l) P(b);
+ * absolute discounting, P = (max(c(a b) - d, 0) + d T(a) P(b)) / c(a);
+ * where P(b) = (c(b) + 1) / (N + V + 1) and one extra word stands for every
+ * word never seen.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class SmoothingSweep {
+
+	/**
+	 * Number of settings scored at the same time.
+	 */
+	public static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of values tried for each method.
+	 */
+	public static int POINTS_PER_METHOD = 34;
+
+	/**
+	 * File the perplexity of every setting is written to.
+	 */
+	public static String OUT_FILE_NAME = "smooth_sweep.txt";
+
+	/**
+	 * A smoothing method.
+	 */
+	enum Method {
+		ADD_K, INTERPOLATION, ABSOLUTE_DISCOUNT
+	}
+
+	/**
+	 * Counts looked up for every pair of the evaluation file, indexed by
+	 * pair. Shared by every thread and never changed.
+	 */
+	private final int[] myPairCounts;
+	private final int[] myContextCounts;
+	private final int[] myContextTypes;
+	private final int[] myWordCounts;
+
+	/**
+	 * Number of pairs counted in training and number of different words
+	 * following anything.
+	 */
+	private final long myTotal;
+	private final int myVocabularySize;
+
+	/**
+	 * Counts the training lines and looks up the counts of every pair of the
+	 * evaluation lines. Lines are read as Bigram reads them: each line is its
+	 * own sentence when Bigram.SENTENCES is true, otherwise the training
+	 * lines are one stream and each evaluation line starts from the start
+	 * symbol.
+	 *
+	 * @param theTrainingLines
+	 *            - lines of the training file.
+	 * @param theEvaluationLines
+	 *            - lines of the evaluation file.
+	 */
+	public SmoothingSweep(final List<String> theTrainingLines, final List<String> theEvaluationLines) {
+		final long time = Metrics.start();
+		final Vocabulary vocabulary = new Vocabulary();
+		final int startId = vocabulary.intern(Bigram.START_SYMBOL);
+		final int endId = vocabulary.intern(Bigram.END_SYMBOL);
+		final Tokenizer tokenizer = new Tokenizer();
+
+		// Count the training pairs, and the contexts and words of every pair.
+		final LongCounter pairs = new LongCounter();
+		final LongCounter contexts = new LongCounter();
+		final LongCounter words = new LongCounter();
+		final LongCounter types = new LongCounter();
+		int prevId = startId;
+		for (final String line : theTrainingLines) {
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				final int id = vocabulary.intern(tokenizer.getToken());
+				countPair(pairs, contexts, words, types, prevId, id);
+				prevId = id;
+			}
+			if (Bigram.SENTENCES && prevId != startId) {
+				countPair(pairs, contexts, words, types, prevId, endId);
+				prevId = startId;
+			}
+		}
+		if (!Bigram.SENTENCES && prevId != startId) {
+			countPair(pairs, contexts, words, types, prevId, endId);
+		}
+		long total = 0;
+		for (int i = 0; i < words.capacity(); i++) {
+			if (words.isUsed(i)) {
+				total += words.countAt(i);
+			}
+		}
+		myTotal = total;
+		myVocabularySize = words.size();
+
+		// Look up every evaluation pair once.
+		final List<int[]> resolved = new ArrayList<int[]>();
+		for (final String line : theEvaluationLines) {
+			int context = startId;
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				final int id = vocabulary.getId(tokenizer.getToken());
+				resolved.add(lookUp(pairs, contexts, words, types, context, id));
+				context = id;
+			}
+			if (Bigram.SENTENCES) {
+				resolved.add(lookUp(pairs, contexts, words, types, context, endId));
+			}
+		}
+		myPairCounts = new int[resolved.size()];
+		myContextCounts = new int[resolved.size()];
+		myContextTypes = new int[resolved.size()];
+		myWordCounts = new int[resolved.size()];
+		for (int i = 0; i < resolved.size(); i++) {
+			final int[] counts = resolved.get(i);
+			myPairCounts[i] = counts[0];
+			myContextCounts[i] = counts[1];
+			myContextTypes[i] = counts[2];
+			myWordCounts[i] = counts[3];
+		}
+		Metrics.stop("sweep.count", time, resolved.size());
+	}
+
+	/**
+	 * Trains once on FILE_NAME_ONE, scores FILE_NAME_TWO under every setting
+	 * and writes the perplexity of each to OUT_FILE_NAME.
+	 *
+	 * @param args
+	 * @throws IOException
+	 *             if a file can not be read.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads.
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		Metrics.install();
+		long time = System.nanoTime();
+		final SmoothingSweep sweep = new SmoothingSweep(readLines(BigramSmooth.FILE_NAME_ONE),
+				readLines(BigramSmooth.FILE_NAME_TWO));
+		System.out.println("Counted in " + (System.nanoTime() - time) / 1e6 + " ms, " + sweep.getPairCount()
+				+ " pairs to score");
+
+		final List<Method> methods = new ArrayList<Method>();
+		final List<Double> values = new ArrayList<Double>();
+		for (int i = 0; i < POINTS_PER_METHOD; i++) {
+			// add-k from 0.0001 to 1 on a log scale, the rest evenly inside (0, 1).
+			methods.add(Method.ADD_K);
+			values.add(Math.pow(10.0, -4.0 + 4.0 * i / Math.max(1, POINTS_PER_METHOD - 1)));
+			methods.add(Method.INTERPOLATION);
+			values.add((i + 1.0) / (POINTS_PER_METHOD + 1));
+			methods.add(Method.ABSOLUTE_DISCOUNT);
+			values.add((i + 1.0) / (POINTS_PER_METHOD + 1));
+		}
+		time = System.nanoTime();
+		final double[] perplexities = sweep.sweep(methods, values);
+		System.out.println("Scored " + perplexities.length + " settings in " + (System.nanoTime() - time) / 1e6
+				+ " ms");
+
+		final List<String> output = new ArrayList<String>();
+		int best = 0;
+		for (int i = 0; i < perplexities.length; i++) {
+			output.add(methods.get(i) + " " + values.get(i) + " " + perplexities[i]);
+			if (perplexities[i] < perplexities[best]) {
+				best = i;
+			}
+		}
+		writeFile(output, OUT_FILE_NAME);
+		System.out.println("Best : " + output.get(best));
+		Metrics.finish();
+	}
+
+	/**
+	 * Scores every setting, THREADS at a time.
+	 *
+	 * @param theMethods
+	 *            - the method of each setting.
+	 * @param theValues
+	 *            - the value of each setting, k, l or d.
+	 * @return the perplexity of each setting.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads.
+	 */
+	public double[] sweep(final List<Method> theMethods, final List<Double> theValues) throws InterruptedException {
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, THREADS));
+		final List<Future<Double>> futures = new ArrayList<Future<Double>>();
+		for (int i = 0; i < theMethods.size(); i++) {
+			final Method method = theMethods.get(i);
+			final double value = theValues.get(i);
+			futures.add(pool.submit(new Callable<Double>() {
+				@Override
+				public Double call() {
+					return perplexity(method, value);
+				}
+			}));
+		}
+		pool.shutdown();
+		final double[] perplexities = new double[futures.size()];
+		try {
+			for (int i = 0; i < perplexities.length; i++) {
+				perplexities[i] = futures.get(i).get();
+			}
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Setting failed", e.getCause());
+		}
+		return perplexities;
+	}
+
+	/**
+	 * Calculates the perplexity of the evaluation file under one setting.
+	 *
+	 * @param theMethod
+	 *            - the smoothing method.
+	 * @param theValue
+	 *            - k, l or d.
+	 * @return exp(-average log probability) over every evaluation pair.
+	 */
+	public double perplexity(final Method theMethod, final double theValue) {
+		final double unseen = 1.0 / (myTotal + myVocabularySize + 1);
+		final double sizeWithUnseen = myVocabularySize + 1;
+		double sum = 0.0;
+		for (int i = 0; i < myPairCounts.length; i++) {
+			final double pair = myPairCounts[i];
+			final double context = myContextCounts[i];
+			final double word = (myWordCounts[i] + 1) * unseen;
+			final double probability;
+			if (theMethod == Method.ADD_K) {
+				probability = (pair + theValue) / (context + theValue * sizeWithUnseen);
+			} else if (context == 0) {
+				probability = word;
+			} else if (theMethod == Method.INTERPOLATION) {
+				probability = theValue * pair / context + (1.0 - theValue) * word;
+			} else {
+				probability = (Math.max(pair - theValue, 0.0) + theValue * myContextTypes[i] * word) / context;
+			}
+			sum += Math.log(probability);
+		}
+		return Math.exp(-sum / myPairCounts.length);
+	}
+
+	/**
+	 * @return the number of evaluation pairs scored under each setting.
+	 */
+	public int getPairCount() {
+		return myPairCounts.length;
+	}
+
+	/**
+	 * Counts one training pair.
+	 *
+	 * @param thePairs
+	 *            - counts of each pair.
+	 * @param theContexts
+	 *            - number of pairs each word starts.
+	 * @param theWords
+	 *            - number of pairs each word ends.
+	 * @param theTypes
+	 *            - number of different pairs each word starts.
+	 * @param theContext
+	 *            - id of the first word.
+	 * @param theWord
+	 *            - id of the second word.
+	 */
+	private static void countPair(final LongCounter thePairs, final LongCounter theContexts,
+			final LongCounter theWords, final LongCounter theTypes, final int theContext, final int theWord) {
+		final long key = LongCounter.pair(theContext, theWord);
+		if (thePairs.get(key) == 0) {
+			theTypes.add(theContext, 1);
+		}
+		thePairs.add(key, 1);
+		theContexts.add(theContext, 1);
+		theWords.add(theWord, 1);
+	}
+
+	/**
+	 * Looks up the counts of one evaluation pair.
+	 *
+	 * @param thePairs
+	 *            - counts of each pair.
+	 * @param theContexts
+	 *            - number of pairs each word starts.
+	 * @param theWords
+	 *            - number of pairs each word ends.
+	 * @param theTypes
+	 *            - number of different pairs each word starts.
+	 * @param theContext
+	 *            - id of the first word, -1 if never seen.
+	 * @param theWord
+	 *            - id of the second word, -1 if never seen.
+	 * @return the pair count, context count, context types and word count.
+	 */
+	private static int[] lookUp(final LongCounter thePairs, final LongCounter theContexts,
+			final LongCounter theWords, final LongCounter theTypes, final int theContext, final int theWord) {
+		final int pair = theContext < 0 || theWord < 0 ? 0 : thePairs.get(LongCounter.pair(theContext, theWord));
+		final int context = theContext < 0 ? 0 : theContexts.get(theContext);
+		final int types = theContext < 0 ? 0 : theTypes.get(theContext);
+		final int word = theWord < 0 ? 0 : theWords.get(theWord);
+		return new int[] { pair, context, types, word };
+	}
+
+	/**
+	 * Reads the lines of a file.
+	 *
+	 * @param theFileName
+	 *            - the file being read.
+	 * @return its lines, blank lines left out.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	private static List<String> readLines(final String theFileName) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		for (final String line : Files.readAllLines(Paths.get(theFileName), StandardCharsets.UTF_8)) {
+			if (!"".equals(line.trim())) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Writes any list to a file, one entry per line.
+	 *
+	 * @param theStringToWrite
+	 *            - entries being written to file.
+	 * @param theOutFileName
+	 *            - name of the file being written out.
+	 */
+	private static void writeFile(final List<?> theStringToWrite, final String theOutFileName) {
+		try (BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(theOutFileName), StandardCharsets.UTF_8))) {
+			for (final Object string : theStringToWrite) {
+				writer.write(string.toString());
+				writer.newLine();
+			}
+		} catch (final FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,333 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts word pairs with a bounded amount of memory. Pairs are counted in a
+ * hashmap until it holds the maximum number of distinct pairs, then the
+ * counts are sorted and written to a run file on disk and the hashmap is
+ * emptied. Once every pair has been added, the run files are merged k ways
+ * into one stream of pairs in sorted order, with the counts of equal pairs
+ * added together.
+ *
+ * Memory use is set by the maximum number of pairs kept in memory, not by
+ * the size of the input, so corpora much larger than the heap can be
+ * counted. Whatever receives the merged pairs must still hold them all, so
+ * Bigram, which adds them to its node graph, is only bounded while
+ * counting.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class SpillingBigramCounter {
+
+	/**
+	 * Receives each merged pair and its count.
+	 */
+	public interface PairHandler {
+
+		/**
+		 * @param theContext
+		 *            - the previous word.
+		 * @param theWord
+		 *            - the word following theContext.
+		 * @param theCount
+		 *            - number of times theWord followed theContext.
+		 * @throws IOException
+		 *             if the pair can not be written.
+		 */
+		void pair(String theContext, String theWord, int theCount) throws IOException;
+	}
+
+	/**
+	 * Maximum number of distinct pairs counted in memory.
+	 */
+	private final int myMaxPairs;
+
+	/**
+	 * Directory run files are written to.
+	 */
+	private final File myDirectory;
+
+	/**
+	 * Hashmap<"theContext theWord", theCount> of the pairs counted since the
+	 * last spill. Words never contain a space, so "a b" sorts the same as the
+	 * pair (a, b).
+	 */
+	private final HashMap<String, int[]> myBuffer;
+
+	/**
+	 * Run files written so far.
+	 */
+	private final List<File> myRuns;
+
+	/**
+	 * SpillingBigramCounter constructor.
+	 *
+	 * @param theMaxPairs
+	 *            - maximum number of distinct pairs counted in memory.
+	 * @param theDirectory
+	 *            - directory run files are written to.
+	 */
+	public SpillingBigramCounter(final int theMaxPairs, final File theDirectory) {
+		if (theMaxPairs <= 0) {
+			throw new IllegalArgumentException("Maximum pairs must be positive: " + theMaxPairs);
+		}
+		myMaxPairs = theMaxPairs;
+		myDirectory = theDirectory;
+		myBuffer = new HashMap<String, int[]>();
+		myRuns = new ArrayList<File>();
+	}
+
+	/**
+	 * Counts one occurrence of theWord following theContext, spilling to disk
+	 * if the buffer is full.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 * @throws IOException
+	 *             if a run file can not be written.
+	 */
+	public void add(final String theContext, final String theWord) throws IOException {
+		final String key = theContext + " " + theWord;
+		final int[] count = myBuffer.get(key);
+		if (count == null) {
+			myBuffer.put(key, new int[] { 1 });
+			if (myBuffer.size() >= myMaxPairs) {
+				spill();
+			}
+		} else {
+			count[0] += 1;
+		}
+	}
+
+	/**
+	 * Counts every pair of a text read line by line, from the start symbol to
+	 * the end symbol, so the text is never held in memory whole. Lines are
+	 * one stream, so the last word of a line is followed by the first word of
+	 * the next.
+	 *
+	 * @param theReader
+	 *            - reader of the text being counted.
+	 * @return the number of words counted.
+	 * @throws IOException
+	 *             if the text can not be read or a run file can not be
+	 *             written.
+	 */
+	public long addText(final BufferedReader theReader) throws IOException {
+		final Tokenizer tokenizer = new Tokenizer();
+		long words = 0;
+		String prevWord = Bigram.START_SYMBOL;
+		String line = theReader.readLine();
+		while (line != null) {
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				final String word = tokenizer.getToken();
+				add(prevWord, word);
+				prevWord = word;
+				words += 1;
+			}
+			line = theReader.readLine();
+		}
+		add(prevWord, Bigram.END_SYMBOL);
+		return words;
+	}
+
+	/**
+	 * Sorts the buffer and writes it to a new run file.
+	 *
+	 * @throws IOException
+	 *             if the run file can not be written.
+	 */
+	private void spill() throws IOException {
+		final long time = Metrics.start();
+		final String[] keys = myBuffer.keySet().toArray(new String[myBuffer.size()]);
+		Arrays.sort(keys);
+		final File run = File.createTempFile("bigram-run-", ".bin", myDirectory);
+		run.deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+			for (final String key : keys) {
+				out.writeUTF(key);
+				out.writeInt(myBuffer.get(key)[0]);
+			}
+		}
+		myRuns.add(run);
+		Metrics.stop("bigram.spill", time, keys.length);
+		myBuffer.clear();
+	}
+
+	/**
+	 * Merges every run into one sorted stream of pairs, adding up the counts
+	 * of equal pairs, and deletes the run files.
+	 *
+	 * @param theHandler
+	 *            - receives each pair once, in sorted order.
+	 * @throws IOException
+	 *             if a run file can not be read.
+	 */
+	public void merge(final PairHandler theHandler) throws IOException {
+		if (!myBuffer.isEmpty()) {
+			spill();
+		}
+		final long time = Metrics.start();
+		final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, myRuns.size()),
+				new Comparator<RunReader>() {
+					@Override
+					public int compare(final RunReader theFirst, final RunReader theSecond) {
+						return theFirst.myKey.compareTo(theSecond.myKey);
+					}
+				});
+		long pairs = 0;
+		try {
+			for (final File run : myRuns) {
+				final RunReader reader = new RunReader(run);
+				if (reader.advance()) {
+					queue.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			while (!queue.isEmpty()) {
+				final String key = queue.peek().myKey;
+				int count = 0;
+				// Add up this pair from every run that has it.
+				while (!queue.isEmpty() && queue.peek().myKey.equals(key)) {
+					final RunReader reader = queue.poll();
+					count += reader.myCount;
+					if (reader.advance()) {
+						queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+				final int space = key.indexOf(' ');
+				theHandler.pair(key.substring(0, space), key.substring(space + 1), count);
+				pairs += 1;
+			}
+		} finally {
+			for (final RunReader reader : queue) {
+				reader.close();
+			}
+			for (final File run : myRuns) {
+				run.delete();
+			}
+			Metrics.stop("bigram.merge", time, pairs);
+		}
+		myRuns.clear();
+	}
+
+	/**
+	 * @return the number of run files written so far.
+	 */
+	public int getRunCount() {
+		return myRuns.size() + (myBuffer.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Counts the pairs of a file and writes the merged counts to another file
+	 * as "theContext theWord theCount" lines, without ever holding more than
+	 * the given number of pairs in memory.
+	 *
+	 * @param args
+	 *            - input file, output file and maximum pairs in memory.
+	 * @throws IOException
+	 *             if a file can not be read or written.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final String inFileName = args.length > 0 ? args[0] : Bigram.FILE_NAME_ONE;
+		final String outFileName = args.length > 1 ? args[1] : "bigram_counts.txt";
+		final int maxPairs = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+		final SpillingBigramCounter counter = new SpillingBigramCounter(maxPairs,
+				new File(System.getProperty("java.io.tmpdir")));
+		try (BufferedReader reader = CorpusIngester.open(Paths.get(inFileName))) {
+			counter.addText(reader);
+		}
+		System.out.println("Runs : " + counter.getRunCount());
+
+		try (BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(outFileName), StandardCharsets.UTF_8))) {
+			counter.merge(new PairHandler() {
+				@Override
+				public void pair(final String theContext, final String theWord, final int theCount)
+						throws IOException {
+					writer.write(theContext + " " + theWord + " " + theCount);
+					writer.newLine();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads the pairs of one run file in order.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class RunReader {
+
+		private final DataInputStream myIn;
+		private String myKey;
+		private int myCount;
+
+		/**
+		 * RunReader constructor.
+		 *
+		 * @param theRun
+		 *            - the run file being read.
+		 * @throws IOException
+		 *             if the file can not be opened.
+		 */
+		RunReader(final File theRun) throws IOException {
+			myIn = new DataInputStream(new BufferedInputStream(new FileInputStream(theRun), 1 << 16));
+		}
+
+		/**
+		 * Reads the next pair.
+		 *
+		 * @return false at the end of the run.
+		 * @throws IOException
+		 *             if the file can not be read.
+		 */
+		boolean advance() throws IOException {
+			try {
+				myKey = myIn.readUTF();
+				myCount = myIn.readInt();
+				return true;
+			} catch (final EOFException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Closes the run file.
+		 *
+		 * @throws IOException
+		 *             if the file can not be closed.
+		 */
+		void close() throws IOException {
+			myIn.close();
+		}
+	}
+}
@@ -0,0 +1,538 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over the word ids of the whole training corpus that counts any
+ * sequence of words, of any length, without a count table for each order.
+ *
+ * The index is a suffix array: the start of every suffix of the word stream,
+ * sorted by the words that follow it. All suffixes starting with the same n
+ * words are next to each other, so the count of an n-gram is the size of that
+ * range, found with two binary searches. Next to it is the LCP array, the
+ * number of words each suffix shares with the one before it, used to count
+ * distinct n-grams.
+ *
+ * The suffix array is built by prefix doubling. Suffixes are first sorted by
+ * their first word with Arrays.parallelSort, then every group of suffixes
+ * still tied is sorted by the rank of the suffix k words further on, for k =
+ * 1, 2, 4 and so on, with large groups sorted by Arrays.parallelSort. The LCP
+ * array is then found in linear time with Kasai's algorithm.
+ *
+ * An index can be kept in memory, or written to a file and memory mapped so
+ * it is read from disk as it is used.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class SuffixArrayIndex {
+
+	/**
+	 * File the index is written to and mapped from by main.
+	 */
+	public static String INDEX_FILE_NAME = "suffix_array.index";
+
+	/**
+	 * Largest order printed by main.
+	 */
+	public static int MAX_ORDER = 5;
+
+	/**
+	 * Groups at least this large are sorted with Arrays.parallelSort.
+	 */
+	private static final int PARALLEL_GROUP = 1 << 13;
+
+	/**
+	 * First int of an index file.
+	 */
+	private static final int MAGIC = 0x53414958;
+
+	/**
+	 * Words of the corpus and their ids.
+	 */
+	private final Vocabulary myVocabulary;
+
+	/**
+	 * Number of words in the stream.
+	 */
+	private final int mySize;
+
+	/**
+	 * The word stream, the start of every suffix in sorted order, and the
+	 * number of words each sorted suffix shares with the one before it.
+	 */
+	private final IntBuffer myTokens;
+	private final IntBuffer mySuffixes;
+	private final IntBuffer myLcp;
+
+	/**
+	 * Builds an index in memory.
+	 *
+	 * @param theVocabulary
+	 *            - the words of the corpus and their ids.
+	 * @param theTokens
+	 *            - the word ids of the corpus, in order.
+	 */
+	public SuffixArrayIndex(final Vocabulary theVocabulary, final int[] theTokens) {
+		final long time = Metrics.start();
+		myVocabulary = theVocabulary;
+		mySize = theTokens.length;
+		final int[] suffixes = buildSuffixArray(theTokens);
+		myTokens = IntBuffer.wrap(theTokens);
+		mySuffixes = IntBuffer.wrap(suffixes);
+		myLcp = IntBuffer.wrap(buildLcp(theTokens, suffixes));
+		Metrics.stop("suffixArray.build", time, mySize);
+	}
+
+	/**
+	 * SuffixArrayIndex constructor for an index read from a file.
+	 *
+	 * @param theVocabulary
+	 *            - the words of the corpus and their ids.
+	 * @param theSize
+	 *            - number of words in the stream.
+	 * @param theTokens
+	 *            - the word stream.
+	 * @param theSuffixes
+	 *            - the suffix array.
+	 * @param theLcp
+	 *            - the LCP array.
+	 */
+	private SuffixArrayIndex(final Vocabulary theVocabulary, final int theSize, final IntBuffer theTokens,
+			final IntBuffer theSuffixes, final IntBuffer theLcp) {
+		myVocabulary = theVocabulary;
+		mySize = theSize;
+		myTokens = theTokens;
+		mySuffixes = theSuffixes;
+		myLcp = theLcp;
+	}
+
+	/**
+	 * Builds an index of the given inputs, writes it to INDEX_FILE_NAME, maps
+	 * it back and prints the number of distinct n-grams of each order. With
+	 * "check" as the last argument it then counts every n-gram up to
+	 * MAX_ORDER by brute force and compares the counts with the mapped index.
+	 *
+	 * @param args
+	 *            - files, directories or glob patterns to read, and
+	 *            "check".
+	 * @throws IOException
+	 *             if an input can not be read or the index not written.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final boolean isCheck = args.length > 0 && "check".equals(args[args.length - 1]);
+		final String[] inputs = isCheck ? Arrays.copyOf(args, args.length - 1) : args;
+		final List<Path> files = CorpusIngester
+				.expand(inputs.length > 0 ? inputs : new String[] { Bigram.FILE_NAME_ONE });
+		Metrics.install();
+		long time = System.nanoTime();
+		final SuffixArrayIndex built = build(files);
+		System.out.println("Built index of " + built.size() + " words in " + (System.nanoTime() - time) / 1e6
+				+ " ms");
+		built.write(new File(INDEX_FILE_NAME));
+		time = System.nanoTime();
+		final SuffixArrayIndex mapped = map(new File(INDEX_FILE_NAME));
+		System.out.println("Mapped " + INDEX_FILE_NAME + " in " + (System.nanoTime() - time) / 1e6 + " ms");
+		for (int order = 1; order <= MAX_ORDER; order++) {
+			System.out.println("Distinct " + order + "-grams : " + mapped.getDistinctCount(order));
+		}
+		if (isCheck) {
+			System.out.println("Wrong counts : " + mapped.check(MAX_ORDER));
+			System.out.println("\"of the\" : " + mapped.getCount("of", "the") + ", \"one of the\" : "
+					+ mapped.getCount("one", "of", "the"));
+		}
+		Metrics.finish();
+	}
+
+	/**
+	 * Counts every n-gram of the word stream up to an order in a hashmap, one
+	 * window at a time, and compares each count and the number of distinct
+	 * n-grams of each order with the index.
+	 *
+	 * @param theMaxOrder
+	 *            - highest order checked.
+	 * @return the number of counts that differ from the index.
+	 */
+	int check(final int theMaxOrder) {
+		int wrong = 0;
+		for (int order = 1; order <= theMaxOrder; order++) {
+			// Hashmap<theIds, theCount> of every n-gram of this order.
+			final HashMap<List<Integer>, int[]> counts = new HashMap<List<Integer>, int[]>();
+			for (int i = 0; i + order <= mySize; i++) {
+				final List<Integer> ids = new ArrayList<Integer>(order);
+				for (int j = i; j < i + order; j++) {
+					ids.add(myTokens.get(j));
+				}
+				final int[] count = counts.get(ids);
+				if (count == null) {
+					counts.put(ids, new int[] { 1 });
+				} else {
+					count[0] += 1;
+				}
+			}
+			if (counts.size() != getDistinctCount(order)) {
+				System.out.println("Distinct " + order + "-grams : " + getDistinctCount(order) + ", brute force "
+						+ counts.size());
+				wrong += 1;
+			}
+			for (final Map.Entry<List<Integer>, int[]> entry : counts.entrySet()) {
+				final int[] ids = new int[order];
+				for (int j = 0; j < order; j++) {
+					ids[j] = entry.getKey().get(j);
+				}
+				if (getCount(ids) != entry.getValue()[0]) {
+					wrong += 1;
+				}
+			}
+		}
+		return wrong;
+	}
+
+	/**
+	 * Reads and tokenizes every file and builds an index in memory. Each file
+	 * is followed by the end symbol, so no n-gram runs from one file into the
+	 * next.
+	 *
+	 * @param theFiles
+	 *            - files being read.
+	 * @return the index.
+	 * @throws IOException
+	 *             if a file can not be read.
+	 */
+	public static SuffixArrayIndex build(final List<Path> theFiles) throws IOException {
+		final Vocabulary vocabulary = new Vocabulary();
+		final Tokenizer tokenizer = new Tokenizer();
+		final int endId = vocabulary.intern(Bigram.END_SYMBOL);
+		int[] tokens = new int[1024];
+		int size = 0;
+		for (final Path file : theFiles) {
+			try (BufferedReader reader = CorpusIngester.open(file)) {
+				String line = reader.readLine();
+				while (line != null) {
+					tokenizer.reset(line);
+					while (tokenizer.next()) {
+						if (size == tokens.length) {
+							tokens = Arrays.copyOf(tokens, size * 2);
+						}
+						tokens[size++] = vocabulary.intern(tokenizer.getToken());
+					}
+					line = reader.readLine();
+				}
+			}
+			if (size == tokens.length) {
+				tokens = Arrays.copyOf(tokens, size * 2);
+			}
+			tokens[size++] = endId;
+		}
+		return new SuffixArrayIndex(vocabulary, Arrays.copyOf(tokens, size));
+	}
+
+	/**
+	 * Sorts the suffixes of a word stream by prefix doubling.
+	 *
+	 * @param theTokens
+	 *            - the word ids, none negative.
+	 * @return the start of every suffix, in sorted order.
+	 */
+	private static int[] buildSuffixArray(final int[] theTokens) {
+		final int n = theTokens.length;
+		// Each key holds what the suffix is sorted by in its high 32 bits and
+		// where the suffix starts in its low 32 bits.
+		final long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = ((long) theTokens[i] << 32) | i;
+		}
+		Arrays.parallelSort(keys);
+
+		// The rank of a suffix is the sorted position of the first suffix tied
+		// with it.
+		final int[] suffixes = new int[n];
+		final int[] rank = new int[n];
+		for (int j = 0; j < n; j++) {
+			suffixes[j] = (int) keys[j];
+			rank[suffixes[j]] = j > 0 && (keys[j] >>> 32) == (keys[j - 1] >>> 32) ? rank[suffixes[j - 1]] : j;
+		}
+
+		final int[] groupStart = new int[n];
+		final int[] groupEnd = new int[n];
+		for (int k = 1; k < n; k *= 2) {
+			// Find the groups still tied, and key their suffixes by the rank k
+			// words on, before any rank changes.
+			int groups = 0;
+			int start = 0;
+			while (start < n) {
+				int end = start + 1;
+				while (end < n && rank[suffixes[end]] == rank[suffixes[start]]) {
+					end += 1;
+				}
+				if (end - start > 1) {
+					groupStart[groups] = start;
+					groupEnd[groups] = end;
+					groups += 1;
+					for (int j = start; j < end; j++) {
+						final int suffix = suffixes[j];
+						final long next = suffix + k < n ? rank[suffix + k] + 1 : 0;
+						keys[j] = (next << 32) | suffix;
+					}
+				}
+				start = end;
+			}
+			if (groups == 0) {
+				break;
+			}
+
+			// Sort each group and split it where the keys change.
+			for (int g = 0; g < groups; g++) {
+				final int from = groupStart[g];
+				final int to = groupEnd[g];
+				if (to - from >= PARALLEL_GROUP) {
+					Arrays.parallelSort(keys, from, to);
+				} else {
+					Arrays.sort(keys, from, to);
+				}
+				int runStart = from;
+				for (int j = from; j < to; j++) {
+					if (j > from && (keys[j] >>> 32) != (keys[j - 1] >>> 32)) {
+						runStart = j;
+					}
+					suffixes[j] = (int) keys[j];
+					rank[suffixes[j]] = runStart;
+				}
+			}
+		}
+		return suffixes;
+	}
+
+	/**
+	 * Finds the LCP array with Kasai's algorithm.
+	 *
+	 * @param theTokens
+	 *            - the word ids.
+	 * @param theSuffixes
+	 *            - the suffix array of theTokens.
+	 * @return the number of words each sorted suffix shares with the one
+	 *         before it, 0 for the first.
+	 */
+	private static int[] buildLcp(final int[] theTokens, final int[] theSuffixes) {
+		final int n = theTokens.length;
+		final int[] position = new int[n];
+		for (int j = 0; j < n; j++) {
+			position[theSuffixes[j]] = j;
+		}
+		final int[] lcp = new int[n];
+		int shared = 0;
+		for (int i = 0; i < n; i++) {
+			if (position[i] == 0) {
+				shared = 0;
+				continue;
+			}
+			final int previous = theSuffixes[position[i] - 1];
+			while (i + shared < n && previous + shared < n && theTokens[i + shared] == theTokens[previous + shared]) {
+				shared += 1;
+			}
+			lcp[position[i]] = shared;
+			if (shared > 0) {
+				shared -= 1;
+			}
+		}
+		return lcp;
+	}
+
+	/**
+	 * Counts a sequence of words.
+	 *
+	 * @param theWords
+	 *            - the words, in order.
+	 * @return the number of times the words were seen in a row.
+	 */
+	public int getCount(final String... theWords) {
+		final int[] ids = new int[theWords.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = myVocabulary.getId(theWords[i]);
+			if (ids[i] < 0) {
+				return 0;
+			}
+		}
+		return getCount(ids);
+	}
+
+	/**
+	 * Counts a sequence of word ids.
+	 *
+	 * @param theIds
+	 *            - the word ids, in order.
+	 * @return the number of times the ids were seen in a row. An empty
+	 *         sequence is seen once for every word.
+	 */
+	public int getCount(final int[] theIds) {
+		return search(theIds, true) - search(theIds, false);
+	}
+
+	/**
+	 * Gets the probability of the last word following the words before it.
+	 *
+	 * @param theWords
+	 *            - the context words followed by the word.
+	 * @return count(theWords) / count(context), 0 if the context was never
+	 *         seen.
+	 */
+	public double getProbability(final String... theWords) {
+		final int context = getCount(Arrays.copyOf(theWords, theWords.length - 1));
+		return context == 0 ? 0.0 : (double) getCount(theWords) / context;
+	}
+
+	/**
+	 * Counts the distinct n-grams of one order using the LCP array.
+	 *
+	 * @param theOrder
+	 *            - number of words in each n-gram.
+	 * @return the number of distinct n-grams of that order.
+	 */
+	public int getDistinctCount(final int theOrder) {
+		int count = 0;
+		for (int j = 0; j < mySize; j++) {
+			if (mySize - mySuffixes.get(j) >= theOrder && (j == 0 || myLcp.get(j) < theOrder)) {
+				count += 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Binary searches the suffix array for the range starting with a
+	 * sequence of ids.
+	 *
+	 * @param theIds
+	 *            - the word ids.
+	 * @param isUpper
+	 *            - true to find the end of the range, false for its start.
+	 * @return the first sorted position after the range, or the first in it.
+	 */
+	private int search(final int[] theIds, final boolean isUpper) {
+		int low = 0;
+		int high = mySize;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int compared = compare(mySuffixes.get(middle), theIds);
+			if (compared < 0 || (isUpper && compared == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares the start of a suffix with a sequence of ids.
+	 *
+	 * @param theSuffix
+	 *            - where the suffix starts.
+	 * @param theIds
+	 *            - the word ids.
+	 * @return below 0 if the suffix sorts before the ids, 0 if it starts with
+	 *         them and above 0 if it sorts after them.
+	 */
+	private int compare(final int theSuffix, final int[] theIds) {
+		for (int j = 0; j < theIds.length; j++) {
+			if (theSuffix + j >= mySize) {
+				return -1;
+			}
+			final int token = myTokens.get(theSuffix + j);
+			if (token != theIds[j]) {
+				return token < theIds[j] ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes the index to a file: a header with the words, then the word
+	 * stream, the suffix array and the LCP array as ints.
+	 *
+	 * @param theFile
+	 *            - the file being written.
+	 * @throws IOException
+	 *             if the file can not be written.
+	 */
+	public void write(final File theFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(theFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(mySize);
+			out.writeInt(myVocabulary.size());
+			for (int id = 0; id < myVocabulary.size(); id++) {
+				out.writeUTF(myVocabulary.getWord(id));
+			}
+			// The arrays start on a multiple of 4 bytes.
+			while (out.size() % 4 != 0) {
+				out.writeByte(0);
+			}
+			for (final IntBuffer buffer : new IntBuffer[] { myTokens, mySuffixes, myLcp }) {
+				for (int j = 0; j < mySize; j++) {
+					out.writeInt(buffer.get(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Memory maps an index written by write(). Only the words are read into
+	 * memory; the arrays are read from the file as they are used.
+	 *
+	 * @param theFile
+	 *            - the file being mapped.
+	 * @return the index.
+	 * @throws IOException
+	 *             if the file can not be read or does not hold an index.
+	 */
+	public static SuffixArrayIndex map(final File theFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(theFile, "r")) {
+			if (file.readInt() != MAGIC) {
+				throw new IOException("Not a suffix array index: " + theFile);
+			}
+			final int size = file.readInt();
+			final int words = file.readInt();
+			final Vocabulary vocabulary = new Vocabulary();
+			for (int id = 0; id < words; id++) {
+				vocabulary.intern(file.readUTF());
+			}
+			final long start = (file.getFilePointer() + 3) / 4 * 4;
+			final FileChannel channel = file.getChannel();
+			final IntBuffer[] buffers = new IntBuffer[3];
+			for (int i = 0; i < buffers.length; i++) {
+				// Each array is mapped on its own so the index can pass 2 GB.
+				buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + 4L * size * i, 4L * size)
+						.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			}
+			return new SuffixArrayIndex(vocabulary, size, buffers[0], buffers[1], buffers[2]);
+		}
+	}
+
+	/**
+	 * @return the number of words in the stream.
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * @return the words of the corpus and their ids.
+	 */
+	public Vocabulary getVocabulary() {
+		return myVocabulary;
+	}
+}
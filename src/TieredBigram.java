@@ -0,0 +1,529 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Serves a frozen bigram from two tiers. The rows of every context word live
+ * in a compact memory mapped file, and the rows of the contexts looked up
+ * most often are also decoded into arrays on the heap. Lookups of hot
+ * contexts never touch the file, while the long tail of rarely used contexts
+ * costs no heap at all.
+ *
+ * Every lookup adds to the count of its context. A cold context is promoted
+ * once its count reaches PROMOTE_COUNT, if the hot rows have room. Every
+ * REBALANCE_INTERVAL lookups the hot rows are chosen again from the highest
+ * counts, and all counts are halved so old traffic fades.
+ *
+ * The file holds the perfect hash of the words, then the row starts and the
+ * children of the model as arrays, then its log probabilities stored the same
+ * way the frozen model stores them: exact doubles, or 8 or 16 bit codes after
+ * their codebook. The codebook is read onto the heap and the codes stay in
+ * the file. Hot rows hold decoded log probabilities.
+ *
+ * A tiered file can be opened again without training, so a model can be
+ * served from it without ever building the graph or the frozen model. A
+ * TieredBigram is not safe to use from more than one thread at a time.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class TieredBigram {
+
+	/**
+	 * Lookups of a cold context before it is promoted.
+	 */
+	public static int PROMOTE_COUNT = 8;
+
+	/**
+	 * Lookups between two rebalances of the hot rows.
+	 */
+	public static int REBALANCE_INTERVAL = 1 << 20;
+
+	/**
+	 * Untimed passes made by main() before the timed one.
+	 */
+	public static int WARMUP_RUNS = 10;
+
+	/**
+	 * First int of a tiered file.
+	 */
+	private static final int MAGIC = 0x54494552;
+
+	/**
+	 * Perfect hash giving the ids of the words.
+	 */
+	private final PerfectHashVocabulary myVocabulary;
+
+	/**
+	 * Number of words and the cold tier: row starts and children mapped from
+	 * the file.
+	 */
+	private final int mySize;
+	private final IntBuffer myRowStart;
+	private final IntBuffer myChildren;
+
+	/**
+	 * Number of bits per log probability, 0 when stored exactly.
+	 */
+	private final int myBits;
+
+	/**
+	 * Exact log probabilities, or quantized codes mapped from the file and
+	 * their codebook. Only the buffers used by myBits are set.
+	 */
+	private final DoubleBuffer myLogProbs;
+	private final ByteBuffer myByteCodes;
+	private final ShortBuffer myShortCodes;
+	private final double[] myCodebook;
+
+	/**
+	 * The hot tier, the decoded row of each hot context by id, null for cold
+	 * ones, and the number of children in hot rows and the most allowed.
+	 */
+	private final HotRow[] myHotRows;
+	private long myHotEdges;
+	private final long myMaxHotEdges;
+
+	/**
+	 * Lookups of each context since the counts were last halved.
+	 */
+	private final int[] myCounts;
+
+	/**
+	 * Lookups served by each tier, promotions and lookups since the last
+	 * rebalance.
+	 */
+	private long myHotHits;
+	private long myColdHits;
+	private long myPromotions;
+	private int myLookups;
+
+	/**
+	 * Maps a tiered file.
+	 *
+	 * @param theFile
+	 *            - file written by write().
+	 * @param theMaxHotEdges
+	 *            - the most children kept in hot rows on the heap.
+	 * @throws IOException
+	 *             if the file can not be read or is not a tiered file.
+	 */
+	public TieredBigram(final File theFile, final long theMaxHotEdges) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(theFile, "r")) {
+			if (file.readInt() != MAGIC) {
+				throw new IOException("Not a tiered bigram: " + theFile);
+			}
+			mySize = file.readInt();
+			final int edges = file.readInt();
+			myBits = file.readInt();
+			myCodebook = new double[file.readInt()];
+			final byte[] vocabulary = new byte[file.readInt()];
+			file.readFully(vocabulary);
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(vocabulary))) {
+				myVocabulary = (PerfectHashVocabulary) in.readObject();
+			} catch (final ClassNotFoundException e) {
+				throw new IOException("Not a tiered bigram: " + theFile, e);
+			}
+			final long start = (file.getFilePointer() + 7) / 8 * 8;
+			final long childrenStart = start + 4L * (mySize + 1);
+			final long logProbsStart = (childrenStart + 4L * edges + 7) / 8 * 8;
+			final FileChannel channel = file.getChannel();
+			myRowStart = channel.map(FileChannel.MapMode.READ_ONLY, start, 4L * (mySize + 1)).asIntBuffer();
+			myChildren = channel.map(FileChannel.MapMode.READ_ONLY, childrenStart, 4L * edges).asIntBuffer();
+			if (myBits == 0) {
+				myLogProbs = channel.map(FileChannel.MapMode.READ_ONLY, logProbsStart, 8L * edges).asDoubleBuffer();
+				myByteCodes = null;
+				myShortCodes = null;
+			} else {
+				myLogProbs = null;
+				file.seek(logProbsStart);
+				for (int i = 0; i < myCodebook.length; i++) {
+					myCodebook[i] = file.readDouble();
+				}
+				final long codesStart = logProbsStart + 8L * myCodebook.length;
+				if (myBits == 8) {
+					myByteCodes = channel.map(FileChannel.MapMode.READ_ONLY, codesStart, edges);
+					myShortCodes = null;
+				} else if (myBits == 16) {
+					myShortCodes = channel.map(FileChannel.MapMode.READ_ONLY, codesStart, 2L * edges).asShortBuffer();
+					myByteCodes = null;
+				} else {
+					throw new IOException("Not a tiered bigram: " + theFile);
+				}
+			}
+		}
+		myMaxHotEdges = theMaxHotEdges;
+		myHotRows = new HotRow[mySize];
+		myCounts = new int[mySize];
+	}
+
+	/**
+	 * Trains a frozen model, writes it as a tiered file, then times looking up
+	 * every word pair of the training file in the frozen model and in the
+	 * tiered model, after untimed passes that warm up both.
+	 *
+	 * @param args
+	 *            - optional number of hot edges, defaults to 65536.
+	 * @throws IOException
+	 *             if the tiered file can not be written or read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final long hotEdges = args.length > 0 ? Long.parseLong(args[0]) : 1 << 16;
+		Bigram.FREEZE = true;
+		Bigram.reset();
+		Bigram.startProbalities();
+		final FrozenBigram frozen = Bigram.getFrozenModel();
+		final File file = new File(Bigram.TIERED_FILE_NAME);
+		write(frozen, file);
+		final TieredBigram tiered = new TieredBigram(file, hotEdges);
+
+		final Tokenizer tokenizer = new Tokenizer();
+		final String text = new String(Files.readAllBytes(Paths.get(Bigram.FILE_NAME_ONE)), StandardCharsets.UTF_8);
+		final int[] ids = new int[tokenizer.countTokens(text)];
+		tokenizer.reset(text);
+		for (int i = 0; tokenizer.next(); i++) {
+			ids[i] = frozen.getId(tokenizer.getToken());
+		}
+		for (int run = 0; run < WARMUP_RUNS + 1; run++) {
+			double frozenSum = 0.0;
+			long time = System.nanoTime();
+			for (int i = 1; i < ids.length; i++) {
+				frozenSum += frozen.getLogProbability(ids[i - 1], ids[i]);
+			}
+			final double frozenNanos = (double) (System.nanoTime() - time) / ids.length;
+			double tieredSum = 0.0;
+			time = System.nanoTime();
+			for (int i = 1; i < ids.length; i++) {
+				tieredSum += tiered.getLogProbability(ids[i - 1], ids[i]);
+			}
+			final double tieredNanos = (double) (System.nanoTime() - time) / ids.length;
+			if (run == WARMUP_RUNS) {
+				System.out.println("Frozen : " + frozenNanos + " ns per lookup, " + frozen.getMemoryBytes()
+						+ " bytes, log probability sum : " + frozenSum);
+				System.out.println("Tiered : " + tieredNanos + " ns per lookup, log probability sum : " + tieredSum);
+				System.out.println(tiered);
+			}
+		}
+	}
+
+	/**
+	 * Writes a frozen model as a tiered file. Quantized models are written
+	 * as their codebook and codes.
+	 *
+	 * @param theModel
+	 *            - the model being written.
+	 * @param theFile
+	 *            - the file being written.
+	 * @throws IOException
+	 *             if the file can not be written.
+	 */
+	public static void write(final FrozenBigram theModel, final File theFile) throws IOException {
+		final ByteArrayOutputStream vocabulary = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(vocabulary)) {
+			out.writeObject(theModel.getVocabulary());
+		}
+		final int size = theModel.getVocabularySize();
+		final int edges = theModel.getEdgeCount();
+		final int bits = theModel.getBits();
+		final double[] codebook = bits == 0 ? new double[0] : theModel.getCodebook();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(theFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(size);
+			out.writeInt(edges);
+			out.writeInt(bits);
+			out.writeInt(codebook.length);
+			out.writeInt(vocabulary.size());
+			vocabulary.writeTo(out);
+			// Row starts and children start on a multiple of 8 bytes, and so
+			// do the log probabilities after them.
+			pad(out);
+			for (int i = 0; i <= size; i++) {
+				out.writeInt(theModel.getRowStart(i));
+			}
+			for (int i = 0; i < edges; i++) {
+				out.writeInt(theModel.getChild(i));
+			}
+			pad(out);
+			if (bits == 0) {
+				for (int i = 0; i < edges; i++) {
+					out.writeDouble(theModel.getLogProbabilityAt(i));
+				}
+			} else {
+				for (final double value : codebook) {
+					out.writeDouble(value);
+				}
+				for (int i = 0; i < edges; i++) {
+					if (bits == 8) {
+						out.writeByte(theModel.getCodeAt(i));
+					} else {
+						out.writeShort(theModel.getCodeAt(i));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes zero bytes up to the next multiple of 8.
+	 *
+	 * @param theOut
+	 *            - the stream being padded.
+	 * @throws IOException
+	 *             if the stream can not be written.
+	 */
+	private static void pad(final DataOutputStream theOut) throws IOException {
+		while (theOut.size() % 8 != 0) {
+			theOut.writeByte(0);
+		}
+	}
+
+	/**
+	 * Only the perfect hash is kept, not the words, so an unseen word is
+	 * rejected by its 16 bit fingerprint alone and about 1 in 65536 unseen
+	 * words is taken for a word of the model.
+	 *
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the id of the word, or -1 if it is not in the model.
+	 */
+	public int getId(final String theWord) {
+		return myVocabulary.getId(theWord);
+	}
+
+	/**
+	 * Gets the log probability of a word following a context word.
+	 *
+	 * @param theContext
+	 *            - the previous word.
+	 * @param theWord
+	 *            - the word following theContext.
+	 * @return the natural log of the probability, negative infinity if the
+	 *         pair was never seen.
+	 */
+	public double getLogProbability(final String theContext, final String theWord) {
+		return getLogProbability(getId(theContext), getId(theWord));
+	}
+
+	/**
+	 * Gets the log probability of a word following a context word, from the
+	 * hot row of the context if it has one, otherwise from the file.
+	 *
+	 * @param theContextId
+	 *            - id of the previous word.
+	 * @param theWordId
+	 *            - id of the word following it.
+	 * @return the natural log of the probability, negative infinity if the
+	 *         pair was never seen.
+	 */
+	public double getLogProbability(final int theContextId, final int theWordId) {
+		if (theContextId < 0 || theWordId < 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		myCounts[theContextId] += 1;
+		if (++myLookups >= REBALANCE_INTERVAL) {
+			rebalance();
+		}
+		final HotRow row = myHotRows[theContextId];
+		if (row != null) {
+			myHotHits += 1;
+			final int index = Arrays.binarySearch(row.myChildren, theWordId);
+			return index < 0 ? Double.NEGATIVE_INFINITY : row.myLogProbs[index];
+		}
+		myColdHits += 1;
+		if (myCounts[theContextId] >= PROMOTE_COUNT) {
+			promote(theContextId);
+		}
+		int low = myRowStart.get(theContextId);
+		int high = myRowStart.get(theContextId + 1) - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int child = myChildren.get(middle);
+			if (child < theWordId) {
+				low = middle + 1;
+			} else if (child > theWordId) {
+				high = middle - 1;
+			} else {
+				return getLogProbabilityAt(middle);
+			}
+		}
+		return Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * @param theIndex
+	 *            - index of a child in the file.
+	 * @return the log probability of the child following its word.
+	 */
+	private double getLogProbabilityAt(final int theIndex) {
+		if (myBits == 0) {
+			return myLogProbs.get(theIndex);
+		} else if (myBits == 8) {
+			return myCodebook[myByteCodes.get(theIndex) & 0xFF];
+		}
+		return myCodebook[myShortCodes.get(theIndex) & 0xFFFF];
+	}
+
+	/**
+	 * Decodes the row of a context onto the heap, if the hot rows have room.
+	 *
+	 * @param theContextId
+	 *            - id of the context.
+	 */
+	private void promote(final int theContextId) {
+		final int start = myRowStart.get(theContextId);
+		final int length = myRowStart.get(theContextId + 1) - start;
+		if (myHotEdges + length > myMaxHotEdges) {
+			return;
+		}
+		final HotRow row = new HotRow(length);
+		for (int i = 0; i < length; i++) {
+			row.myChildren[i] = myChildren.get(start + i);
+			row.myLogProbs[i] = getLogProbabilityAt(start + i);
+		}
+		myHotRows[theContextId] = row;
+		myHotEdges += length;
+		myPromotions += 1;
+	}
+
+	/**
+	 * Chooses the hot rows again from the contexts with the highest counts,
+	 * dropping hot rows that were not used since the last rebalance, then
+	 * halves every count.
+	 */
+	private void rebalance() {
+		final long time = Metrics.start();
+		myLookups = 0;
+		int candidates = 0;
+		for (int id = 0; id < mySize; id++) {
+			if (myCounts[id] > 0) {
+				candidates += 1;
+			}
+		}
+		// Highest count first, kept with the id in one long.
+		final long[] order = new long[candidates];
+		int index = 0;
+		for (int id = 0; id < mySize; id++) {
+			if (myCounts[id] > 0) {
+				order[index++] = ((long) (Integer.MAX_VALUE - myCounts[id]) << 32) | id;
+			}
+		}
+		Arrays.sort(order);
+
+		final boolean[] keep = new boolean[mySize];
+		long edges = 0;
+		for (final long entry : order) {
+			final int id = (int) entry;
+			final int length = myRowStart.get(id + 1) - myRowStart.get(id);
+			// Hot rows still in use stay hot while there is room.
+			if ((myCounts[id] >= PROMOTE_COUNT || myHotRows[id] != null) && edges + length <= myMaxHotEdges) {
+				keep[id] = true;
+				edges += length;
+			}
+		}
+		for (int id = 0; id < mySize; id++) {
+			if (myHotRows[id] != null && !keep[id]) {
+				myHotEdges -= myHotRows[id].myChildren.length;
+				myHotRows[id] = null;
+			}
+		}
+		for (int id = 0; id < mySize; id++) {
+			if (keep[id] && myHotRows[id] == null) {
+				promote(id);
+			}
+			myCounts[id] >>>= 1;
+		}
+		Metrics.stop("tiered.rebalance", time, candidates);
+	}
+
+	/**
+	 * @return the number of contexts with a hot row.
+	 */
+	public int getHotRowCount() {
+		int count = 0;
+		for (final HotRow row : myHotRows) {
+			if (row != null) {
+				count += 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of children in hot rows.
+	 */
+	public long getHotEdges() {
+		return myHotEdges;
+	}
+
+	/**
+	 * @return the number of bits per log probability in the file, 0 when
+	 *         exact.
+	 */
+	public int getBits() {
+		return myBits;
+	}
+
+	/**
+	 * @return the number of bytes of heap used by the hot rows, the counts,
+	 *         the codebook and the perfect hash.
+	 */
+	public long getHeapBytes() {
+		return 12L * myHotEdges + 8L * mySize + 8L * myCodebook.length + myVocabulary.getMemoryBytes();
+	}
+
+	/**
+	 * @return the fraction of lookups served by hot rows.
+	 */
+	public double getHotHitRate() {
+		final long total = myHotHits + myColdHits;
+		return total == 0 ? 0.0 : (double) myHotHits / total;
+	}
+
+	@Override
+	public String toString() {
+		return "hot rows : " + getHotRowCount() + ", hot edges : " + myHotEdges + "/" + myMaxHotEdges
+				+ ", hot hits : " + myHotHits + ", cold hits : " + myColdHits + ", hot hit rate : "
+				+ getHotHitRate() + ", promotions : " + myPromotions + ", heap bytes : " + getHeapBytes();
+	}
+
+	/**
+	 * The children of one context and their log probabilities, decoded onto
+	 * the heap.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class HotRow {
+
+		private final int[] myChildren;
+		private final double[] myLogProbs;
+
+		/**
+		 * HotRow constructor.
+		 *
+		 * @param theLength
+		 *            - number of children.
+		 */
+		HotRow(final int theLength) {
+			myChildren = new int[theLength];
+			myLogProbs = new double[theLength];
+		}
+	}
+}
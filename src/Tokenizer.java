@@ -0,0 +1,340 @@
+/**
+ * Splits text into lower case words in a single pass, without regular
+ * expressions and without creating a String for every word. Each call to
+ * next() moves to the following word and copies it, lower cased, into a
+ * buffer that is reused for every word. Callers that need a String can ask
+ * for one with getToken().
+ *
+ * By default words are split on the same characters as the regular
+ * expression "\s", characters are lower cased one at a time, and
+ * punctuation is kept as part of the word. In Unicode mode every Unicode
+ * space splits words, characters are lower cased by code point, and
+ * punctuation is any Unicode punctuation character.
+ *
+ * A tokenizer is not thread safe, each thread should use its own.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class Tokenizer {
+
+	/**
+	 * What to do with punctuation. KEEP leaves it in the word, STRIP removes
+	 * it, and SPLIT makes every punctuation character a word of its own.
+	 */
+	public enum Punctuation {
+		KEEP, STRIP, SPLIT
+	}
+
+	/**
+	 * Settings.
+	 */
+	private final Punctuation myPunctuation;
+	private final boolean myUnicode;
+
+	/**
+	 * The text being split, held as either an array or a sequence, and the
+	 * range of it being read.
+	 */
+	private char[] myArray;
+	private CharSequence mySequence;
+	private int myPosition;
+	private int myEnd;
+
+	/**
+	 * The current word, lower cased, and where it was found in the text.
+	 */
+	private char[] myToken;
+	private int myTokenLength;
+	private int myTokenStart;
+	private int myTokenEnd;
+
+	/**
+	 * Tokenizer constructor that keeps punctuation and splits on "\s".
+	 */
+	public Tokenizer() {
+		this(Punctuation.KEEP, false);
+	}
+
+	/**
+	 * Tokenizer constructor.
+	 *
+	 * @param thePunctuation
+	 *            - what to do with punctuation.
+	 * @param isUnicode
+	 *            - use Unicode spaces, lower casing and punctuation.
+	 */
+	public Tokenizer(final Punctuation thePunctuation, final boolean isUnicode) {
+		myPunctuation = thePunctuation;
+		myUnicode = isUnicode;
+		myToken = new char[64];
+	}
+
+	/**
+	 * Starts reading a new text.
+	 *
+	 * @param theText
+	 *            - the text being split.
+	 * @return this tokenizer.
+	 */
+	public Tokenizer reset(final CharSequence theText) {
+		return reset(theText, 0, theText.length());
+	}
+
+	/**
+	 * Starts reading a range of a new text.
+	 *
+	 * @param theText
+	 *            - the text being split.
+	 * @param theStart
+	 *            - index of the first character read.
+	 * @param theEnd
+	 *            - index after the last character read.
+	 * @return this tokenizer.
+	 */
+	public Tokenizer reset(final CharSequence theText, final int theStart, final int theEnd) {
+		mySequence = theText;
+		myArray = null;
+		myPosition = theStart;
+		myEnd = theEnd;
+		myTokenLength = 0;
+		return this;
+	}
+
+	/**
+	 * Starts reading a range of a character array.
+	 *
+	 * @param theText
+	 *            - the text being split.
+	 * @param theStart
+	 *            - index of the first character read.
+	 * @param theEnd
+	 *            - index after the last character read.
+	 * @return this tokenizer.
+	 */
+	public Tokenizer reset(final char[] theText, final int theStart, final int theEnd) {
+		myArray = theText;
+		mySequence = null;
+		myPosition = theStart;
+		myEnd = theEnd;
+		myTokenLength = 0;
+		return this;
+	}
+
+	/**
+	 * Moves to the next word.
+	 *
+	 * @return true if there was another word, false at the end of the text.
+	 */
+	public boolean next() {
+		myTokenLength = 0;
+		// Skip separators, and punctuation when it is stripped.
+		while (myPosition < myEnd) {
+			final int codePoint = codePointAt(myPosition);
+			if (!isSeparator(codePoint) && !(myPunctuation == Punctuation.STRIP && isPunctuation(codePoint))) {
+				break;
+			}
+			myPosition += Character.charCount(codePoint);
+		}
+		if (myPosition >= myEnd) {
+			return false;
+		}
+		myTokenStart = myPosition;
+		while (myPosition < myEnd) {
+			final int codePoint = codePointAt(myPosition);
+			if (isSeparator(codePoint)) {
+				break;
+			}
+			if (myPunctuation != Punctuation.KEEP && isPunctuation(codePoint)) {
+				if (myPunctuation == Punctuation.SPLIT) {
+					if (myTokenLength > 0) {
+						// End the word here, the punctuation is the next word.
+						break;
+					}
+					append(codePoint);
+					myPosition += Character.charCount(codePoint);
+					break;
+				}
+				myPosition += Character.charCount(codePoint);
+				continue;
+			}
+			append(codePoint);
+			myPosition += Character.charCount(codePoint);
+		}
+		myTokenEnd = myPosition;
+		return true;
+	}
+
+	/**
+	 * Counts the words in a text without keeping them.
+	 *
+	 * @param theText
+	 *            - the text being counted.
+	 * @return the number of words.
+	 */
+	public int countTokens(final CharSequence theText) {
+		reset(theText);
+		int count = 0;
+		while (next()) {
+			count += 1;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the buffer holding the current word, from index 0 up to
+	 *         getTokenLength(). It is overwritten by the next call to next().
+	 */
+	public char[] getTokenChars() {
+		return myToken;
+	}
+
+	/**
+	 * @return the number of characters in the current word.
+	 */
+	public int getTokenLength() {
+		return myTokenLength;
+	}
+
+	/**
+	 * @return the index in the text where the current word starts.
+	 */
+	public int getStart() {
+		return myTokenStart;
+	}
+
+	/**
+	 * @return the index in the text after the current word.
+	 */
+	public int getEnd() {
+		return myTokenEnd;
+	}
+
+	/**
+	 * @return the current word as a new String.
+	 */
+	public String getToken() {
+		return new String(myToken, 0, myTokenLength);
+	}
+
+	/**
+	 * @return the hash code getToken().hashCode() would return, without
+	 *         creating the String.
+	 */
+	public int hashToken() {
+		int hash = 0;
+		for (int i = 0; i < myTokenLength; i++) {
+			hash = 31 * hash + myToken[i];
+		}
+		return hash;
+	}
+
+	/**
+	 * Checks if the current word is equal to a String.
+	 *
+	 * @param theWord
+	 *            - the String being compared.
+	 * @return true if the current word has the same characters.
+	 */
+	public boolean tokenEquals(final String theWord) {
+		if (theWord.length() != myTokenLength) {
+			return false;
+		}
+		for (int i = 0; i < myTokenLength; i++) {
+			if (theWord.charAt(i) != myToken[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lower cases a character and adds it to the current word.
+	 *
+	 * @param theCodePoint
+	 *            - the character being added.
+	 */
+	private void append(final int theCodePoint) {
+		if (myTokenLength + 2 > myToken.length) {
+			final char[] bigger = new char[myToken.length * 2];
+			System.arraycopy(myToken, 0, bigger, 0, myTokenLength);
+			myToken = bigger;
+		}
+		if (theCodePoint < 128) {
+			// Fast path for ASCII.
+			myToken[myTokenLength++] = (char) (theCodePoint >= 'A' && theCodePoint <= 'Z' ? theCodePoint + 32
+					: theCodePoint);
+		} else if (myUnicode) {
+			myTokenLength += Character.toChars(Character.toLowerCase(theCodePoint), myToken, myTokenLength);
+		} else {
+			myToken[myTokenLength++] = Character.toLowerCase((char) theCodePoint);
+		}
+	}
+
+	/**
+	 * Reads the character at an index. Outside of Unicode mode every char is
+	 * read on its own.
+	 *
+	 * @param theIndex
+	 *            - index in the text.
+	 * @return the character at that index.
+	 */
+	private int codePointAt(final int theIndex) {
+		final char c = myArray != null ? myArray[theIndex] : mySequence.charAt(theIndex);
+		if (myUnicode && Character.isHighSurrogate(c) && theIndex + 1 < myEnd) {
+			final char low = myArray != null ? myArray[theIndex + 1] : mySequence.charAt(theIndex + 1);
+			if (Character.isLowSurrogate(low)) {
+				return Character.toCodePoint(c, low);
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @param theCodePoint
+	 *            - the character being checked.
+	 * @return true if the character splits words.
+	 */
+	private boolean isSeparator(final int theCodePoint) {
+		switch (theCodePoint) {
+		case ' ':
+		case '\t':
+		case '\n':
+		case '\u000B':
+		case '\f':
+		case '\r':
+			return true;
+		default:
+			return myUnicode && theCodePoint >= 128
+					&& (Character.isWhitespace(theCodePoint) || Character.isSpaceChar(theCodePoint));
+		}
+	}
+
+	/**
+	 * @param theCodePoint
+	 *            - the character being checked.
+	 * @return true if the character is punctuation.
+	 */
+	private boolean isPunctuation(final int theCodePoint) {
+		if (theCodePoint < 128) {
+			return (theCodePoint >= '!' && theCodePoint <= '/') || (theCodePoint >= ':' && theCodePoint <= '@')
+					|| (theCodePoint >= '[' && theCodePoint <= '`') || (theCodePoint >= '{' && theCodePoint <= '~');
+		}
+		if (!myUnicode) {
+			return false;
+		}
+		switch (Character.getType(theCodePoint)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			return true;
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compares the time taken to split the training file into words by the old
+ * regular expression path (toLowerCase, three replaceAll passes and a split)
+ * and by the Tokenizer. Both paths are run a few times first so the JIT has
+ * compiled them before they are timed.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class TokenizerBenchmark {
+
+	/**
+	 * Number of untimed and timed runs of each path.
+	 */
+	public static int WARMUP_RUNS = 5;
+	public static int TIMED_RUNS = 20;
+
+	/**
+	 * Written by every run so the JIT can not skip the work.
+	 */
+	private static volatile int mySink;
+
+	/**
+	 * @param args
+	 *            - optional name of the file to split, defaults to
+	 *            Bigram.FILE_NAME_ONE.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final String fileName = args.length > 0 ? args[0] : Bigram.FILE_NAME_ONE;
+		final String text = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+
+		final int regexTokens = splitWithRegex(text);
+		final int tokenizerTokens = splitWithTokenizer(text);
+		if (regexTokens != tokenizerTokens) {
+			System.out.println("Token counts differ : regex " + regexTokens + ", tokenizer " + tokenizerTokens);
+		}
+
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			splitWithRegex(text);
+			splitWithTokenizer(text);
+		}
+		long time = System.nanoTime();
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			splitWithRegex(text);
+		}
+		final double regexMillis = (System.nanoTime() - time) / 1e6 / TIMED_RUNS;
+		time = System.nanoTime();
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			splitWithTokenizer(text);
+		}
+		final double tokenizerMillis = (System.nanoTime() - time) / 1e6 / TIMED_RUNS;
+
+		System.out.println("Tokens : " + tokenizerTokens);
+		System.out.println("Regex : " + regexMillis + " ms per run");
+		System.out.println("Tokenizer : " + tokenizerMillis + " ms per run");
+		System.out.println("Speedup : " + regexMillis / tokenizerMillis + "x");
+	}
+
+	/**
+	 * Splits text the way Unigram and Bigram used to.
+	 *
+	 * @param theText
+	 *            - the text being split.
+	 * @return the number of words.
+	 */
+	private static int splitWithRegex(final String theText) {
+		String str = theText.toLowerCase().trim();
+		str = str.replaceAll("\\r", " ").replaceAll("\\n", " ");
+		str = str.replaceAll("\\s+", " ");
+		int count = 0;
+		int hash = 0;
+		for (final String word : str.split(" ")) {
+			if (!"".equals(word.trim())) {
+				hash += word.hashCode();
+				count += 1;
+			}
+		}
+		mySink = hash;
+		return count;
+	}
+
+	/**
+	 * Splits text with the tokenizer, reading the hash of every word as the
+	 * regex path does.
+	 *
+	 * @param theText
+	 *            - the text being split.
+	 * @return the number of words.
+	 */
+	private static int splitWithTokenizer(final String theText) {
+		final Tokenizer tokenizer = new Tokenizer().reset(theText);
+		int count = 0;
+		int hash = 0;
+		while (tokenizer.next()) {
+			hash += tokenizer.hashToken();
+			count += 1;
+		}
+		mySink = hash;
+		return count;
+	}
+}
@@ -0,0 +1,450 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trains the unigram and the bigram with reading, tokenizing and counting
+ * running at the same time. The stages are linked by bounded queues:
+ *
+ * reader --lines--> tokenizer workers --word ids--> counter workers
+ *
+ * The reader puts batches of lines on the first queue. Tokenizer workers turn
+ * each batch into an int array of word ids from one shared vocabulary, and
+ * counter workers count the words and word pairs of each array. When a
+ * queue is full the stage before it waits, so the batches in flight stay
+ * bounded however large the input is. Only the queues are bounded: each
+ * counter worker's LongCounter holds every distinct pair it has seen, so
+ * the counts grow with the vocabulary of the input.
+ *
+ * If the reader or any worker fails, every other stage stops within
+ * POLL_MILLIS instead of waiting on a queue that will never move, and train()
+ * throws the failure.
+ *
+ * Batches are counted in any order, so the pair made by the last word of a
+ * batch and the first word of the next batch is added once all batches are
+ * done. Each file is its own stream of words, going from the start symbol to
+ * the end symbol. When Bigram.SENTENCES is true the tokenizers put the start
+ * and end symbols around each line that is not blank instead, and no pair
+ * crosses a line or a batch.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class TrainingPipeline {
+
+	/**
+	 * Number of workers in each stage, lines per batch and batches each queue
+	 * can hold.
+	 */
+	public static int TOKENIZER_THREADS = 2;
+	public static int COUNTER_THREADS = 2;
+	public static int BATCH_LINES = 1000;
+	public static int QUEUE_CAPACITY = 16;
+
+	/**
+	 * Batch that tells a worker there is no more work.
+	 */
+	private static final Batch END_OF_INPUT = new Batch(-1, -1);
+
+	/**
+	 * Milliseconds a stage waits on a queue before checking whether another
+	 * stage failed.
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * Word ids shared by every worker.
+	 */
+	private final Vocabulary myVocabulary = new Vocabulary();
+
+	/**
+	 * Ids of the start and end symbols.
+	 */
+	private final int myStartId = myVocabulary.intern(Bigram.START_SYMBOL);
+	private final int myEndId = myVocabulary.intern(Bigram.END_SYMBOL);
+
+	/**
+	 * Queues between the stages.
+	 */
+	private final BlockingQueue<Batch> myLineQueue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+	private final BlockingQueue<Batch> myIdQueue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+
+	/**
+	 * First and last word id of every batch, by batch number, used to add the
+	 * pairs that cross batches.
+	 */
+	private final ConcurrentHashMap<Integer, int[]> myBoundaries = new ConcurrentHashMap<Integer, int[]>();
+
+	/**
+	 * Number of tokenizer workers still running.
+	 */
+	private final AtomicInteger myTokenizersLeft = new AtomicInteger();
+
+	/**
+	 * Set once the reader or any worker fails.
+	 */
+	private final AtomicBoolean myFailed = new AtomicBoolean();
+
+	/**
+	 * Trains both models from the given inputs, then writes their
+	 * probabilities and evaluates them as their own main methods do.
+	 *
+	 * @param args
+	 *            - files, directories or glob patterns to read.
+	 * @throws IOException
+	 *             if an input can not be listed or read.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers.
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final List<Path> files = CorpusIngester
+				.expand(args.length > 0 ? args : new String[] { Bigram.FILE_NAME_ONE });
+		Unigram.reset();
+		Bigram.reset();
+
+		Metrics.install();
+		new TrainingPipeline().train(files);
+		Unigram.finishTraining();
+		Bigram.finishTraining();
+		Unigram.startEvaluation();
+		Bigram.startEvaluation();
+		Metrics.finish();
+	}
+
+	/**
+	 * Runs the pipeline over every file and adds the counts to Unigram and
+	 * Bigram.
+	 *
+	 * @param theFiles
+	 *            - files being read.
+	 * @throws IOException
+	 *             if a file can not be read.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers.
+	 */
+	public void train(final List<Path> theFiles) throws IOException, InterruptedException {
+		final long time = Metrics.start();
+		final int tokenizers = Math.max(1, TOKENIZER_THREADS);
+		final int counters = Math.max(1, COUNTER_THREADS);
+		myTokenizersLeft.set(tokenizers);
+		final ExecutorService pool = Executors.newFixedThreadPool(tokenizers + counters);
+		final List<Future<?>> tokenizerFutures = new ArrayList<Future<?>>();
+		final List<Future<Counter>> counterFutures = new ArrayList<Future<Counter>>();
+		for (int i = 0; i < tokenizers; i++) {
+			tokenizerFutures.add(pool.submit(new TokenizerWorker()));
+		}
+		for (int i = 0; i < counters; i++) {
+			counterFutures.add(pool.submit(new Counter()));
+		}
+		pool.shutdown();
+
+		// The reader runs on this thread.
+		final int batches;
+		try {
+			batches = read(theFiles);
+		} catch (final Throwable e) {
+			myFailed.set(true);
+			pool.shutdownNow();
+			throw e;
+		} finally {
+			for (int i = 0; i < tokenizers; i++) {
+				put(myLineQueue, END_OF_INPUT);
+			}
+		}
+
+		// Merge the counts of every counter worker.
+		final LongCounter words = new LongCounter();
+		final LongCounter pairs = new LongCounter();
+		try {
+			for (final Future<?> future : tokenizerFutures) {
+				future.get();
+			}
+			for (final Future<Counter> future : counterFutures) {
+				words.addAll(future.get().myWords);
+				pairs.addAll(future.get().myPairs);
+			}
+		} catch (final ExecutionException e) {
+			myFailed.set(true);
+			pool.shutdownNow();
+			throw new IOException("Worker failed", e.getCause());
+		}
+
+		// Add the pairs that cross batches, and the start and end of each file.
+		// Sentences never cross a line, so in sentence mode there are none.
+		if (!Bigram.SENTENCES) {
+			int prevFile = -1;
+			int prevId = myStartId;
+			for (int batch = 0; batch < batches; batch++) {
+				final int[] boundary = myBoundaries.get(batch);
+				if (boundary[0] != prevFile) {
+					if (prevFile >= 0 && prevId != myStartId) {
+						pairs.add(LongCounter.pair(prevId, myEndId), 1);
+					}
+					prevFile = boundary[0];
+					prevId = myStartId;
+				}
+				if (boundary[1] >= 0) {
+					pairs.add(LongCounter.pair(prevId, boundary[1]), 1);
+					prevId = boundary[2];
+				}
+			}
+			if (prevFile >= 0 && prevId != myStartId) {
+				pairs.add(LongCounter.pair(prevId, myEndId), 1);
+			}
+		}
+
+		for (int i = 0; i < words.capacity(); i++) {
+			if (words.isUsed(i)) {
+				Unigram.addCount(myVocabulary.getWord((int) words.keyAt(i)), words.countAt(i));
+			}
+		}
+		Bigram.addCounts(pairs, myVocabulary);
+		Metrics.stop("pipeline.train", time, batches);
+	}
+
+	/**
+	 * Reads every file and puts its lines on the line queue in batches. A
+	 * batch never holds lines from two files. Reading stops early if a
+	 * worker fails.
+	 *
+	 * @param theFiles
+	 *            - files being read.
+	 * @return the number of batches.
+	 * @throws IOException
+	 *             if a file can not be read.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue.
+	 */
+	private int read(final List<Path> theFiles) throws IOException, InterruptedException {
+		int batches = 0;
+		for (int file = 0; file < theFiles.size(); file++) {
+			try (BufferedReader reader = CorpusIngester.open(theFiles.get(file))) {
+				Batch batch = new Batch(batches, file);
+				String line = reader.readLine();
+				while (line != null) {
+					batch.myLines.add(line);
+					if (batch.myLines.size() >= BATCH_LINES) {
+						if (!put(myLineQueue, batch)) {
+							return batches;
+						}
+						batches += 1;
+						batch = new Batch(batches, file);
+					}
+					line = reader.readLine();
+				}
+				if (!batch.myLines.isEmpty()) {
+					if (!put(myLineQueue, batch)) {
+						return batches;
+					}
+					batches += 1;
+				}
+			}
+			Metrics.gauge("pipeline.lineQueue", myLineQueue.size());
+		}
+		return batches;
+	}
+
+	/**
+	 * Puts a batch on a queue, waiting for space until another stage fails.
+	 *
+	 * @param theQueue
+	 *            - the queue.
+	 * @param theBatch
+	 *            - the batch being added.
+	 * @return true if the batch was added, false if a stage failed first.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue.
+	 */
+	private boolean put(final BlockingQueue<Batch> theQueue, final Batch theBatch) throws InterruptedException {
+		while (!theQueue.offer(theBatch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (myFailed.get()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a batch from a queue, waiting until one comes or another stage
+	 * fails.
+	 *
+	 * @param theQueue
+	 *            - the queue.
+	 * @return the batch, or END_OF_INPUT once a stage has failed.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a batch.
+	 */
+	private Batch take(final BlockingQueue<Batch> theQueue) throws InterruptedException {
+		while (!myFailed.get()) {
+			final Batch batch = theQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if (batch != null) {
+				return batch;
+			}
+		}
+		return END_OF_INPUT;
+	}
+
+	/**
+	 * Turns batches of lines into batches of word ids.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private class TokenizerWorker implements Callable<Void> {
+
+		private final Tokenizer myTokenizer = new Tokenizer();
+
+		@Override
+		public Void call() throws InterruptedException {
+			try {
+				tokenize();
+			} catch (final Throwable e) {
+				myFailed.set(true);
+				throw e;
+			} finally {
+				// The last tokenizer to finish tells every counter to stop.
+				if (myTokenizersLeft.decrementAndGet() == 0) {
+					for (int i = 0; i < Math.max(1, COUNTER_THREADS); i++) {
+						put(myIdQueue, END_OF_INPUT);
+					}
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Tokenizes batches until the end of the input.
+		 *
+		 * @throws InterruptedException
+		 *             if interrupted while waiting on a queue.
+		 */
+		private void tokenize() throws InterruptedException {
+			Batch batch = take(myLineQueue);
+			while (batch != END_OF_INPUT) {
+				int[] ids = new int[256];
+				int length = 0;
+				for (final String line : batch.myLines) {
+					final int lineStart = length;
+					myTokenizer.reset(line);
+					while (myTokenizer.next()) {
+						// Leaves room for the start and end symbols of a sentence.
+						if (length + 2 >= ids.length) {
+							final int[] bigger = new int[ids.length * 2];
+							System.arraycopy(ids, 0, bigger, 0, length);
+							ids = bigger;
+						}
+						if (Bigram.SENTENCES && length == lineStart) {
+							ids[length++] = myStartId;
+						}
+						ids[length++] = myVocabulary.intern(myTokenizer.getToken());
+					}
+					// Blank lines are not sentences.
+					if (Bigram.SENTENCES && length > lineStart) {
+						ids[length++] = myEndId;
+					}
+				}
+				myBoundaries.put(batch.myNumber, new int[] { batch.myFile, length > 0 ? ids[0] : -1,
+						length > 0 ? ids[length - 1] : -1 });
+				batch.myLines.clear();
+				batch.myIds = ids;
+				batch.myLength = length;
+				if (!put(myIdQueue, batch)) {
+					return;
+				}
+				batch = take(myLineQueue);
+			}
+		}
+	}
+
+	/**
+	 * Counts the words and the pairs inside each batch of word ids.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private class Counter implements Callable<Counter> {
+
+		private final LongCounter myWords = new LongCounter();
+		private final LongCounter myPairs = new LongCounter();
+
+		@Override
+		public Counter call() throws InterruptedException {
+			try {
+				count();
+			} catch (final Throwable e) {
+				myFailed.set(true);
+				throw e;
+			}
+			return this;
+		}
+
+		/**
+		 * Counts batches until the end of the input.
+		 *
+		 * @throws InterruptedException
+		 *             if interrupted while waiting on the queue.
+		 */
+		private void count() throws InterruptedException {
+			Batch batch = take(myIdQueue);
+			while (batch != END_OF_INPUT) {
+				final int[] ids = batch.myIds;
+				long words = 0;
+				for (int i = 0; i < batch.myLength; i++) {
+					// In sentence mode the start and end symbols mark each line.
+					final boolean symbol = Bigram.SENTENCES && (ids[i] == myStartId || ids[i] == myEndId);
+					if (!symbol) {
+						myWords.add(ids[i], 1);
+						words += 1;
+					}
+					if (i > 0 && !(Bigram.SENTENCES && ids[i - 1] == myEndId)) {
+						myPairs.add(LongCounter.pair(ids[i - 1], ids[i]), 1);
+					}
+				}
+				Metrics.increment("pipeline.words", words);
+				batch = take(myIdQueue);
+			}
+		}
+	}
+
+	/**
+	 * A batch of lines from one file, and later the word ids of those lines.
+	 *
+	 * @author Amy Irving
+	 *
+	 */
+	private static class Batch {
+
+		private final int myNumber;
+		private final int myFile;
+		private final List<String> myLines = new ArrayList<String>();
+		private int[] myIds;
+		private int myLength;
+
+		/**
+		 * Batch constructor.
+		 *
+		 * @param theNumber
+		 *            - position of the batch in the input.
+		 * @param theFile
+		 *            - index of the file the lines come from.
+		 */
+		Batch(final int theNumber, final int theFile) {
+			myNumber = theNumber;
+			myFile = theFile;
+		}
+	}
+}
@@ -6,7 +6,8 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -42,20 +43,54 @@ public class Unigram {
 	 */
 	public static int NUMBER_OF_LINES = 100;
 
+	/**
+	 * Symbol rare words are replaced with when the vocabulary is pruned.
+	 */
+	public static String UNKNOWN_SYMBOL = "<UNK>";
+
+	/**
+	 * Vocabulary pruning. Words seen fewer than MIN_COUNT times, or outside the
+	 * MAX_VOCABULARY most frequent words, are merged into UNKNOWN_SYMBOL. When
+	 * PRUNE_INTERVAL is above 0 the counts are also pruned every
+	 * PRUNE_INTERVAL words while they are counted. A value of 0 turns each
+	 * setting off.
+	 */
+	public static int MIN_COUNT = 0;
+	public static int MAX_VOCABULARY = 0;
+	public static int PRUNE_INTERVAL = 0;
+
 	/**
 	 * Hashmap that stores a string word and their occurrences.
 	 */
 	private static HashMap<String, Double> myHashMap;
 
+	/**
+	 * Number of tokens counted, the sum of every count in myHashMap.
+	 */
+	private static double myTotal;
+
+	/**
+	 * Normalized log probabilities indexed by word id, built once training is
+	 * done and used for scoring.
+	 */
+	private static FrozenUnigram myFrozenModel;
+
+	/**
+	 * Splits text into lower case words for training and scoring.
+	 */
+	private static final Tokenizer myTokenizer = new Tokenizer();
+
 
 	/**
 	 * @param args
 	 */
 	public static void main(final String[] args) {
-		myHashMap = new HashMap<String, Double>();
+		reset();
 
+		Metrics.install();
 		startProbalities();
 		startEvaluation();
+		Metrics.finish();
 
 	}
 
@@ -64,68 +99,154 @@ public class Unigram {
 	 * of words found in the file.
 	 */
 	public static void startProbalities() {
-		final String str = readFile(FILE_NAME_ONE, false);
+		final String str = readFile(FILE_NAME_ONE);
 		countOccurrences(str);
+		finishTraining();
+	}
+
+	/**
+	 * Starts a new, empty hashmap of counts.
+	 */
+	static void reset() {
+		myHashMap = new HashMap<String, Double>();
+		myTotal = 0.0;
+		myFrozenModel = null;
+	}
+
+	/**
+	 * Adds theCount occurrences of a word.
+	 * 
+	 * @param theWord - the word being counted.
+	 * @param theCount - the number of occurrences added.
+	 */
+	static void addCount(final String theWord, final double theCount) {
+		final Double current = myHashMap.get(theWord);
+		myHashMap.put(theWord, (current == null ? 0.0 : current) + theCount);
+		myTotal += theCount;
+	}
+
+	/**
+	 * Runs every step after the words have been counted: pruning, freezing
+	 * and writing the probabilities.
+	 */
+	static void finishTraining() {
+		if (MIN_COUNT > 0 || MAX_VOCABULARY > 0) {
+			pruneVocabulary();
+		}
+		Metrics.gauge("unigram.vocabularySize", myHashMap.size());
+		Metrics.gauge("unigram.tokens", myTotal);
+		myFrozenModel = new FrozenUnigram(myHashMap, myTotal);
 		writeProbabilities(OUT_FILE_NAME_ONE);
 	}
 
+	/**
+	 * @return the frozen model, or null before training is finished.
+	 */
+	static FrozenUnigram getFrozenModel() {
+		return myFrozenModel;
+	}
+
 	/**
 	 * Method that runs all other methods to find and write all joint probabilities
 	 * and the perplexity of each line found in a file.
 	 */
 	public static void startEvaluation() {
-		final List<Double> perplexities = evaluateStringPerplexities(readFile(FILE_NAME_TWO, true));
+		final List<Double> perplexities = evaluateStringPerplexities(readFile(FILE_NAME_TWO));
 		writeFile(perplexities, OUT_FILE_NAME_TWO);
 	}
 
 	/**
-	 * Reads in a text file and returns it as a string.
+	 * Reads in a text file and returns it as a string. Line breaks and case are
+	 * kept, the tokenizer lower cases and splits words as it reads them.
 	 * 
 	 * @param theFileName
 	 *            - file to become string.
-	 * @param isFormated
-	 *            - Will the returned string contain line breaks.
 	 * @return the string created from reading theFileName.
 	 */
-	private static String readFile(final String theFileName, final boolean isFormated) {
+	private static String readFile(final String theFileName) {
+		final long time = Metrics.start();
 		String str = "";
 		try (Scanner sc = new Scanner(new File(theFileName));) {
 			// "\Z" means "end of string"
-			str = sc.useDelimiter("\\Z").next().toLowerCase().trim();
-			// "\r" and "\n" are line breaks in linux and windows respectively.
-			if (!isFormated) {
-				str = str.replaceAll("\\r", " ").replaceAll("\\n", " ");
-				str = str.replaceAll("\\s+", " ");
-			}
+			str = sc.useDelimiter("\\Z").next().trim();
 		} catch (final FileNotFoundException e) {
 			e.printStackTrace();
 		}
+		Metrics.stop("unigram.read", time, str.length());
 		return str;
 	}
 
 	/**
 	 * Iterates though the given string and counts occurrence of each word.
-	 * Puts the data in a hashmap<TheWord, theNumberOfOccurences>.
+	 * Puts the data in a hashmap<TheWord, theNumberOfOccurences> and adds up
+	 * the number of tokens.
 	 * 
 	 * @param theString - the string being evaluated.
 	 */
 	private static void countOccurrences(final String theString) {
-		for (final String word : theString.split(" ")) {
-			// Checks for empty string
-			if (!"".equals(word.trim())) {
-				if (myHashMap.containsKey(word)) {
-					final double newValue = myHashMap.get(word).intValue() + 1;
-					myHashMap.put(word, newValue);
-				} else {
-					myHashMap.put(word, 1.0);
-				}
+		final long time = Metrics.start();
+		int count = 0;
+		myTokenizer.reset(theString);
+		while (myTokenizer.next()) {
+			final String word = myTokenizer.getToken();
+			if (myHashMap.containsKey(word)) {
+				final double newValue = myHashMap.get(word).intValue() + 1;
+				myHashMap.put(word, newValue);
+			} else {
+				myHashMap.put(word, 1.0);
+			}
+			count += 1;
+			myTotal += 1;
+			if (PRUNE_INTERVAL > 0 && count % PRUNE_INTERVAL == 0) {
+				pruneVocabulary();
 			}
 		}
+		// Tokenizing happens in the same pass, so it is timed here too.
+		Metrics.stop("unigram.count", time, count);
 	}
 
 	/**
-	 * Iterates through each string in list, calculates the probability of each
-	 * and writes it to a file.
+	 * Merges every word below MIN_COUNT, or outside the MAX_VOCABULARY most
+	 * frequent words, into the unknown symbol. Prints how many words were
+	 * removed and the memory saved.
+	 */
+	private static void pruneVocabulary() {
+		final List<Entry<String, Double>> entries = new ArrayList<Entry<String, Double>>(myHashMap.entrySet());
+		// Most frequent first.
+		Collections.sort(entries, new Comparator<Entry<String, Double>>() {
+			@Override
+			public int compare(final Entry<String, Double> theFirst, final Entry<String, Double> theSecond) {
+				return Double.compare(theSecond.getValue(), theFirst.getValue());
+			}
+		});
+		double unknownCount = 0.0;
+		long savedBytes = 0;
+		final int sizeBefore = myHashMap.size();
+		int index = 0;
+		for (final Entry<String, Double> entry : entries) {
+			final String word = entry.getKey();
+			if (!word.equals(UNKNOWN_SYMBOL)
+					&& (entry.getValue() < MIN_COUNT || (MAX_VOCABULARY > 0 && index >= MAX_VOCABULARY))) {
+				unknownCount += entry.getValue();
+				myHashMap.remove(word);
+				// hashmap entry + table slot, string + its array, boxed double.
+				savedBytes += 32 + 4 + 24 + 16 + word.length() * 2 + 16;
+			}
+			index += 1;
+		}
+		if (unknownCount > 0) {
+			final Double current = myHashMap.get(UNKNOWN_SYMBOL);
+			myHashMap.put(UNKNOWN_SYMBOL, (current == null ? 0.0 : current) + unknownCount);
+			System.out.println("Pruned " + (sizeBefore - myHashMap.size()) + " words, saved about " + savedBytes
+					+ " bytes");
+			Metrics.increment("unigram.prune.words", sizeBefore - myHashMap.size());
+			Metrics.increment("unigram.prune.savedBytes", savedBytes);
+		}
+	}
+
+	/**
+	 * Iterates through each string in list, calculates the probability of each,
+	 * its count divided by the number of tokens, and writes it to a file.
 	 * 
 	 * @param theOutfileName
 	 *            - name of the file being written out.
@@ -138,10 +259,12 @@ public class Unigram {
 			@SuppressWarnings("rawtypes")
 			final
 			Map.Entry pair = it.next();
-			final double prob = (double) pair.getValue() / myHashMap.size();
+			final double prob = (double) pair.getValue() / myTotal;
 			myOutputList.add("P(" + pair.getKey() + ") = " + prob);
 		}
+		final long time = Metrics.start();
 		writeFile(myOutputList, theOutfileName);
+		Metrics.stop("unigram.write", time, myOutputList.size());
 	}
 	
 	/**
@@ -174,11 +297,13 @@ public class Unigram {
 	 * @return A list of doubles representing the perplexity of each line of theString.
 	 */
 	private static List<Double> evaluateStringPerplexities(final String theString) {
-		// Creates list, separates each line, and removes empty strings.
+		// Creates list, separates each line, and removes lines with no words,
+		// whose perplexity is not defined.
 		final List<String> result = new ArrayList<String>();
-		result.addAll(Arrays.asList(theString.split(System.lineSeparator(), theString.length())));
-		while(result.contains("")) {
-			result.remove("");
+		for (final String line : theString.split(System.lineSeparator(), theString.length())) {
+			if (myTokenizer.countTokens(line) > 0) {
+				result.add(line);
+			}
 		}
 		final List<Double> perplexities = new ArrayList<Double>();
 		
@@ -187,46 +312,56 @@ public class Unigram {
 		for (int i = 0; i < NUMBER_OF_LINES; i++) {
 			line = result.get(i);
 			if (!"".equals(line)) {
-				final double jointProb = calculateLineProbability(line);
+				final long time = Metrics.start();
+				final double jointLogProb = calculateLineProbability(line);
+				Metrics.stop("unigram.score", time, 1);
 				// how many words are in the line.
-				final int linelength = line.split(" ").length;
-				perplexities.add(calculateLinePerplexity(linelength, jointProb));
+				final int linelength = myTokenizer.countTokens(line);
+				perplexities.add(calculateLinePerplexity(linelength, jointLogProb));
 			}
 		}
 		return perplexities;
 	}
 
 	/**
-	 * Calculates the joint probability of the sequence of words in the line given.
+	 * Calculates the joint log probability of the sequence of words in the line
+	 * given. Log probabilities are added instead of multiplying probabilities,
+	 * so long lines do not underflow to 0.
 	 * 
 	 * @param theLine - being evaluated.
-	 * @return the joint probability of the sequence of words in that line.
+	 * @return the natural log of the joint probability of the sequence of words
+	 *         in that line, negative infinity if a word was never seen.
 	 */
 	private static double calculateLineProbability(final String theLine) {
-		final String[] string = theLine.split(" ");
-		Double lineProbability = 1.0;
-		for (final String word : string) {
-			if (null == myHashMap.get(word)) {
-				lineProbability = 0.0;
-				break;
+		final boolean isPruned = MIN_COUNT > 0 || MAX_VOCABULARY > 0;
+		final int unknownId = myFrozenModel.getId(UNKNOWN_SYMBOL);
+		double lineLogProbability = 0.0;
+		myTokenizer.reset(theLine);
+		while (myTokenizer.next()) {
+			int id = myFrozenModel.getId(myTokenizer.getToken());
+			if (id < 0 && isPruned) {
+				id = unknownId;
+			}
+			if (id < 0) {
+				return Double.NEGATIVE_INFINITY;
 			}
-			lineProbability *= myHashMap.get(word);
+			lineLogProbability += myFrozenModel.getLogProbability(id);
 		}
-		return lineProbability;
+		return lineLogProbability;
 	}
 	
 	/**
 	 * Calculates the perplexity given the number of words in a line and the joint 
-	 * probability of that sequence of words.
+	 * log probability of that sequence of words.
 	 * 
 	 * @param theLineLength - number of words in that line.
-	 * @param theLineProbability - joint probability of that sequence of words.
-	 * @return
+	 * @param theLineLogProbability - natural log of the joint probability of that sequence of words.
+	 * @return the perplexity of the line, infinity if a word was never seen.
 	 */
-	private static double calculateLinePerplexity(final int theLineLength, final double theLineProbability) {
+	private static double calculateLinePerplexity(final int theLineLength, final double theLineLogProbability) {
 		double perplexity = 0.0;
-		// calculate perplexity = 1/(pow(joint_prob, 1.0/sent_len))		
-		perplexity = 1.0 / (Math.pow(theLineProbability, (1.0/theLineLength)));
+		// calculate perplexity = 1/(pow(joint_prob, 1.0/sent_len)) = exp(-log(joint_prob)/sent_len)
+		perplexity = Math.exp(-theLineLogProbability / theLineLength);
 		return perplexity;
 	}
 }
@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every word a small integer id, the first word seen getting 0, the
+ * next 1 and so on. Ids can be handed out from many threads at once, so
+ * workers can share one vocabulary and count ids instead of Strings.
+ *
+ * @author Amy Irving
+ * @version July 5, 2017
+ *
+ */
+public class Vocabulary {
+
+	/**
+	 * Hashmap<theWord, theId>.
+	 */
+	private final ConcurrentHashMap<String, Integer> myIds;
+
+	/**
+	 * The words, indexed by id.
+	 */
+	private final List<String> myWords;
+
+	/**
+	 * Vocabulary constructor.
+	 */
+	public Vocabulary() {
+		myIds = new ConcurrentHashMap<String, Integer>();
+		myWords = new ArrayList<String>();
+	}
+
+	/**
+	 * Gets the id of a word, giving it a new id if it has none yet.
+	 *
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the id of the word.
+	 */
+	public int intern(final String theWord) {
+		final Integer id = myIds.get(theWord);
+		if (id != null) {
+			return id;
+		}
+		synchronized (myWords) {
+			// Another thread may have added it while we waited.
+			final Integer existing = myIds.get(theWord);
+			if (existing != null) {
+				return existing;
+			}
+			final int newId = myWords.size();
+			myWords.add(theWord);
+			myIds.put(theWord, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * @param theWord
+	 *            - the word being looked up.
+	 * @return the id of the word, or -1 if it has none.
+	 */
+	public int getId(final String theWord) {
+		final Integer id = myIds.get(theWord);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param theId
+	 *            - id of a word.
+	 * @return the word with that id.
+	 */
+	public String getWord(final int theId) {
+		synchronized (myWords) {
+			return myWords.get(theId);
+		}
+	}
+
+	/**
+	 * @return the number of words with an id.
+	 */
+	public int size() {
+		return myIds.size();
+	}
+}